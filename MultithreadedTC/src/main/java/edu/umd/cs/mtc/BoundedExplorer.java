@@ -0,0 +1,103 @@
+package edu.umd.cs.mtc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import edu.umd.cs.mtc.ExplorationStrategy.Step;
+
+/**
+ * Explores the schedules of a test case in order of the number of
+ * preemptions they need, i.e. the number of times a thread that could have
+ * kept running is stopped at a yield point for another thread. First every
+ * schedule without preemptions is run, then every schedule with one, and so
+ * on, so bugs needing few preemptions, which are most of them, are found
+ * after few runs.
+ *
+ * <p>
+ * Each run follows a prefix of choices, and then lets the thread that ran
+ * last keep running. At each state after the prefix, every other thread is
+ * an alternative: one that needs no preemption is explored right away,
+ * and one that does is put off until the next bound.
+ *
+ * @see "Musuvathi and Qadeer, Iterative Context Bounding for Systematic
+ *      Testing of Multithreaded Programs, PLDI 2007"
+ * @since 1.02
+ */
+class BoundedExplorer {
+
+	private final MultithreadedTestCase test;
+	private final int maxPreemptions;
+	private final long deadline;
+	private final long seed;
+
+	/**
+	 * @param maxPreemptions
+	 *            the largest number of preemptions to explore
+	 * @param budget
+	 *            the time in milliseconds after which no more runs are
+	 *            started
+	 */
+	BoundedExplorer(MultithreadedTestCase test, int maxPreemptions, long budget, long seed) {
+		this.test = test;
+		this.maxPreemptions = maxPreemptions;
+		this.deadline = System.currentTimeMillis() + budget;
+		this.seed = seed;
+	}
+
+	ExplorationReport explore() throws Throwable {
+		ExplorationStrategy strategy = new ExplorationStrategy();
+		ScheduleStrategy original = test.getScheduleStrategy();
+		test.setScheduleStrategy(strategy);
+		try {
+			int runs = 0;
+			List<int[]> current = new ArrayList<int[]>();
+			current.add(new int[0]);
+			for (int bound = 0; ; bound++) {
+				List<int[]> next = new ArrayList<int[]>();
+				Deque<int[]> pending = new ArrayDeque<int[]>(current);
+				while (!pending.isEmpty()) {
+					if (System.currentTimeMillis() - deadline >= 0) {
+						// schedules left at this bound and the next are unexplored
+						return new ExplorationReport(runs, pending.size() + next.size(), 
+								false, seed, bound - 1);
+					}
+					int[] prefix = pending.pop();
+					List<Step> steps = strategy.run(test, prefix, seed);
+					runs++;
+					for (int i = steps.size() - 1; i >= prefix.length; i--) {
+						Step step = steps.get(i);
+						for (int thread : step.enabled) {
+							if (thread == step.chosen)
+								continue;
+							int[] alternative = prefixOf(steps, i, thread);
+							if (step.isPreemption(thread))
+								next.add(alternative);
+							else
+								pending.push(alternative);
+						}
+					}
+				}
+				if (next.isEmpty())
+					return new ExplorationReport(runs, 0, true, seed, Integer.MAX_VALUE);
+				if (bound == maxPreemptions)
+					return new ExplorationReport(runs, next.size(), false, seed, bound);
+				current = next;
+			}
+		} finally {
+			test.setScheduleStrategy(original);
+		}
+	}
+
+	/**
+	 * @return the choices of a run up to a state, and another thread there
+	 */
+	private static int[] prefixOf(List<Step> steps, int state, int thread) {
+		int[] prefix = new int[state + 1];
+		for (int i = 0; i < state; i++)
+			prefix[i] = steps.get(i).chosen;
+		prefix[state] = thread;
+		return prefix;
+	}
+}
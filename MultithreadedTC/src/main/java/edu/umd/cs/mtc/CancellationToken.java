@@ -0,0 +1,27 @@
+package edu.umd.cs.mtc;
+
+/**
+ * Records whether one run of a {@link MultithreadedTestCase} has been
+ * cancelled because it failed. Each run gets a new token, and each test
+ * thread keeps the token of the run it belongs to, so a thread left over
+ * from a failed run can't be revived by the next run of the same test case.
+ * The token is checked by {@link MultithreadedTestCase#waitForTick(long)},
+ * {@link MultithreadedTestCase#waitOn(Object)} and
+ * {@link MultithreadedTestCase#awaitOn(java.util.concurrent.locks.Condition)},
+ * which throw once it is cancelled.
+ *
+ * @see TestFramework
+ * @since 1.02
+ */
+class CancellationToken {
+
+	private volatile boolean cancelled;
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+}
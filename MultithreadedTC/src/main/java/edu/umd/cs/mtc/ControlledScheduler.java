@@ -0,0 +1,711 @@
+package edu.umd.cs.mtc;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.mtc.SchedulePoint.Operation;
+
+/**
+ * Runs the thread methods of one run one at a time. Each thread method's
+ * thread has to hold the baton to run; it gives the baton up at the
+ * framework's yield points, where the {@link ScheduleStrategy} picks the
+ * thread that gets it next. The clock advances as soon as no thread can
+ * run, instead of when the clock thread notices that every thread is
+ * blocked, so a run without threads blocking outside the framework needs no
+ * polling at all, and is repeated exactly by running it again with the same
+ * seed.
+ *
+ * <p>
+ * A thread that blocks outside the yield points, e.g. on a monitor or in
+ * {@link MultithreadedTestCase#waitOn(Object)}, can't say when it can go on.
+ * Threads in <code>waitOn</code> and <code>awaitOn</code> give up the baton
+ * before waiting, and a thread that keeps the baton while blocked, or while
+ * spinning, has it taken away by the supervisor, i.e. the clock thread of
+ * the run, which checks every clock period. Such a thread runs uncontrolled
+ * until its next yield point, where it waits for its turn again. The
+ * supervisor also advances the clock once all the uncontrolled threads have
+ * stayed blocked for two periods, and reports a deadlock if nothing can run
+ * for a while.
+ *
+ * <p>
+ * Every decision is recorded in a {@link Schedule}. When replaying a
+ * schedule, the recorded choices are taken instead of asking the strategy,
+ * and the run fails as soon as it takes a different decision. Since the
+ * supervisor depends on timing, a run whose threads block outside the
+ * framework may not replay exactly.
+ *
+ * <p>
+ * Only threads created by the framework to run thread methods are
+ * controlled. Other threads, e.g. those registered with
+ * {@link MultithreadedTestCase#registerThread(Thread)}, run freely and don't
+ * stop at yield points.
+ *
+ * @see MultithreadedTestCase#setScheduleStrategy(ScheduleStrategy)
+ * @since 1.02
+ */
+class ControlledScheduler {
+
+	/** Not started yet */
+	private static final int NEW = 0;
+	/** Waiting for the baton */
+	private static final int READY = 1;
+	/** Holding the baton */
+	private static final int RUNNING = 2;
+	/** Waiting for the clock to reach {@link #ticks}[i] */
+	private static final int TICK = 3;
+	/** Waiting for a lock that was not free */
+	private static final int LOCKED = 4;
+	/** Running or blocked without the baton */
+	private static final int OUTSIDE = 5;
+	/** Finished */
+	private static final int DONE = 6;
+
+	/**
+	 * The number of supervisor checks a thread may keep the baton while
+	 * blocked, before it is taken away
+	 */
+	private static final int BLOCKED_STRIKES = 2;
+
+	/**
+	 * The number of supervisor checks a thread may keep the baton while
+	 * running without reaching a yield point, e.g. in a busy-wait loop,
+	 * before it is taken away
+	 */
+	private static final int SPIN_STRIKES = 10;
+
+	/**
+	 * The number of supervisor checks without progress before a deadlock is
+	 * reported, like the clock thread's
+	 */
+	private static final int DEADLOCK_STRIKES = 50;
+
+	private final MultithreadedTestCase test;
+	private final ScheduleStrategy strategy;
+	private final CancellationToken token;
+	private final Throwable[] error;
+	private final Thread mainThread;
+
+	private final Thread[] threads;
+	private final String[] names;
+	private final int[] states;
+	private final long[] ticks;
+	private final Object[] locks;
+	private final boolean[] retried;
+	private final SchedulePoint point;
+
+	/** The decisions of this run */
+	private final Schedule schedule;
+
+	/** The schedule being replayed, or null */
+	private final Schedule expected;
+
+	/** The objects of the yield points, numbered in the order they are seen */
+	private final Map<Object, Integer> objectIds = new IdentityHashMap<Object, Integer>();
+
+	/** The thread holding the baton, or -1 */
+	private int current = -1;
+
+	/** The number of threads that have started or finished */
+	private int begun;
+
+	/**
+	 * Counts the changes that may let a stuck run go on, i.e. every
+	 * transition except a failed retry of a lock, and every tick. The
+	 * supervisor compares it between checks.
+	 */
+	private long progress;
+
+	/** The progress at the supervisor's last check, and for how many checks */
+	private long lastProgress = -1;
+	private int strikes;
+	private long lastProgressTime = System.currentTimeMillis();
+
+	/**
+	 * @param test
+	 *            the test case being run
+	 * @param strategy
+	 *            picks the next thread at every yield point, or null when
+	 *            replaying
+	 * @param methods
+	 *            the thread methods of the run
+	 * @param random
+	 *            random numbers for the strategy, seeded from the run
+	 * @param error
+	 *            the run's error array
+	 * @param seed
+	 *            the seed of the run
+	 * @param expected
+	 *            the schedule to replay, or null
+	 */
+	ControlledScheduler(MultithreadedTestCase test, ScheduleStrategy strategy,
+			ThreadedMethod[] methods, Random random, Throwable[] error,
+			long seed, Schedule expected) {
+		this.test = test;
+		this.strategy = strategy;
+		this.token = test.cancellation;
+		this.error = error;
+		this.mainThread = Thread.currentThread();
+		int n = methods.length;
+		threads = new Thread[n];
+		names = new String[n];
+		for (int i = 0; i < n; i++)
+			names[i] = methods[i].getName();
+		states = new int[n];
+		ticks = new long[n];
+		locks = new Object[n];
+		retried = new boolean[n];
+		point = new SchedulePoint(names);
+		schedule = new Schedule(seed, names);
+		this.expected = expected;
+		if (expected != null) {
+			boolean same = expected.getThreadCount() == n;
+			for (int i = 0; same && i < n; i++)
+				same = expected.getThreadName(i).equals(names[i]);
+			if (!same)
+				throw new IllegalArgumentException("The schedule is not for threads "
+						+ Arrays.toString(names));
+		} else {
+			strategy.startRun(n, random);
+		}
+	}
+
+	/**
+	 * @return a copy of the decisions taken so far
+	 */
+	synchronized Schedule getSchedule() {
+		return new Schedule(schedule);
+	}
+
+	/**
+	 * Tell the scheduler which thread runs the index-th thread method, before
+	 * it is started.
+	 */
+	synchronized void setThread(int index, Thread t) {
+		threads[index] = t;
+	}
+
+	/**
+	 * @return true if the current thread is controlled by this scheduler
+	 */
+	boolean isControlled() {
+		return indexOf(Thread.currentThread()) >= 0;
+	}
+
+	private synchronized int indexOf(Thread t) {
+		for (int i = 0; i < threads.length; i++)
+			if (threads[i] == t)
+				return i;
+		return -1;
+	}
+
+	// ========================================
+	// -- Yield points, called by the threads --
+	// - - - - - - - - - - - - - - - - - - - - -
+
+	/**
+	 * Wait for the first turn of the current thread, once all the threads
+	 * have started.
+	 *
+	 * @return false if the run has been cancelled
+	 */
+	boolean begin() {
+		return yieldPoint(Operation.START, null);
+	}
+
+	/**
+	 * Let the strategy pick the next thread, and wait for the current
+	 * thread's turn.
+	 *
+	 * @return false if the run has been cancelled
+	 */
+	boolean yieldPoint(Operation operation, Object object) {
+		int index = indexOf(Thread.currentThread());
+		if (index < 0)
+			return !token.isCancelled();
+		synchronized (this) {
+			transition(index, READY, operation, object);
+			return awaitTurn(index);
+		}
+	}
+
+	/**
+	 * Wait for the clock to reach a tick and for the current thread's turn.
+	 *
+	 * @return false if the run has been cancelled
+	 */
+	boolean waitForTick(long tick) {
+		int index = indexOf(Thread.currentThread());
+		if (index < 0)
+			return !token.isCancelled();
+		synchronized (this) {
+			ticks[index] = tick;
+			transition(index, test.getTick() >= tick ? READY : TICK, Operation.TICK, null);
+			return awaitTurn(index);
+		}
+	}
+
+	/**
+	 * Acquire a lock at a yield point. If the lock is not free when it is the
+	 * thread's turn, the thread waits until the lock is released with
+	 * {@link #unlock(java.util.concurrent.locks.Lock)}, or until nothing else
+	 * can run, and then tries again. Like the other yield points, this lets a
+	 * thread the scheduler doesn't control proceed normally: it takes the
+	 * lock as it would without a scheduler, just as {@link #unlock} releases
+	 * it.
+	 *
+	 * @return false if the run has been cancelled, in which case the lock is
+	 *         not held
+	 */
+	boolean lock(java.util.concurrent.locks.Lock lock) {
+		int index = indexOf(Thread.currentThread());
+		if (index < 0) {
+			try {
+				lock.lockInterruptibly();
+			} catch (InterruptedException e) {
+				if (token.isCancelled())
+					return false;
+				throw new AssertionError(e);
+			}
+			if (token.isCancelled()) {
+				lock.unlock();
+				return false;
+			}
+			return true;
+		}
+		synchronized (this) {
+			transition(index, READY, Operation.LOCK, lock);
+			if (!awaitTurn(index))
+				return false;
+		}
+		while (!lock.tryLock()) {
+			synchronized (this) {
+				locks[index] = lock;
+				transition(index, LOCKED, Operation.LOCK, lock);
+				if (!awaitTurn(index))
+					return false;
+			}
+		}
+		synchronized (this) {
+			schedule.addLock(index, idOf(lock));
+			checkReplay();
+		}
+		return true;
+	}
+
+	/**
+	 * Release a lock at a yield point, and let the threads waiting for it
+	 * try again.
+	 *
+	 * @return false if the run has been cancelled; the lock is released
+	 *         anyway
+	 */
+	boolean unlock(java.util.concurrent.locks.Lock lock) {
+		int index = indexOf(Thread.currentThread());
+		if (index < 0) {
+			lock.unlock();
+			return false;
+		}
+		boolean ok;
+		synchronized (this) {
+			transition(index, READY, Operation.UNLOCK, lock);
+			ok = awaitTurn(index);
+		}
+		lock.unlock();
+		synchronized (this) {
+			for (int i = 0; i < states.length; i++) {
+				if (states[i] == LOCKED && locks[i] == lock) {
+					states[i] = READY;
+					locks[i] = null;
+				}
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Give up the baton before blocking outside the framework, e.g. in
+	 * {@link Object#wait()}. The thread must call {@link #resume(Object)}
+	 * afterwards.
+	 */
+	void leave(Object object) {
+		int index = indexOf(Thread.currentThread());
+		if (index < 0)
+			return;
+		synchronized (this) {
+			transition(index, OUTSIDE, Operation.RESUME, object);
+		}
+	}
+
+	/**
+	 * Wait for the current thread's turn after blocking outside the
+	 * framework.
+	 *
+	 * @return false if the run has been cancelled
+	 */
+	boolean resume(Object object) {
+		return yieldPoint(Operation.RESUME, object);
+	}
+
+	/**
+	 * Give up the baton for good when the thread method has returned.
+	 */
+	void end() {
+		int index = indexOf(Thread.currentThread());
+		if (index < 0)
+			return;
+		synchronized (this) {
+			transition(index, DONE, null, null);
+		}
+	}
+
+	/**
+	 * Change the state of a thread, and pick the next thread if it gave up
+	 * the baton. Callers must hold this.
+	 */
+	private void transition(int index, int state, Operation operation, Object object) {
+		if (states[index] == NEW)
+			begun++;
+		// a thread coming back from outside may find the baton free, or held
+		// by another thread; either way it takes its turn like the others
+		boolean failedRetry = state == LOCKED && retried[index];
+		states[index] = state;
+		point.operations[index] = operation;
+		point.objects[index] = idOf(object);
+		if (!failedRetry) {
+			progress++;
+			clearRetries();
+		}
+		if (current == index) {
+			current = -1;
+			point.previous = index;
+		}
+		if (current == -1)
+			schedule(false);
+	}
+
+	/**
+	 * Wait until the given thread holds the baton. Interrupts don't stop the
+	 * wait unless the run has been cancelled; they are left for the thread
+	 * method to see. Callers must hold this.
+	 *
+	 * @return false if the run has been cancelled
+	 */
+	private boolean awaitTurn(int index) {
+		boolean interrupted = false;
+		try {
+			while (current != index) {
+				if (token.isCancelled())
+					return false;
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			states[index] = RUNNING;
+			return !token.isCancelled();
+		} finally {
+			if (interrupted && !token.isCancelled())
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// ================
+	// -- Scheduling --
+	// - - - - - - - - -
+
+	/**
+	 * Hand the free baton to the next thread, advancing the clock if no
+	 * thread can run. Callers must hold this.
+	 *
+	 * @param outsideBlocked
+	 *            true if the threads running outside the framework are known
+	 *            to be blocked; otherwise nothing happens while there are any,
+	 *            since they may come back
+	 * @return false if nothing could be done
+	 */
+	private boolean schedule(boolean outsideBlocked) {
+		if (token.isCancelled() || begun < states.length) {
+			notifyAll();
+			return true;
+		}
+		while (!token.isCancelled()) {
+			int enabled = 0;
+			for (int i = 0; i < states.length; i++)
+				if (states[i] == READY)
+					point.enabled[enabled++] = i;
+			if (enabled > 0) {
+				point.enabledCount = enabled;
+				choose();
+				return true;
+			}
+			if (!outsideBlocked && count(OUTSIDE) > 0)
+				return true;
+			if (retryLocks())
+				continue;
+			if (advanceClock())
+				continue;
+			if (count(TICK) + count(LOCKED) + count(OUTSIDE) == 0) {
+				// all done
+				notifyAll();
+				return true;
+			}
+			if (count(LOCKED) + count(OUTSIDE) == 0) {
+				// only threads waiting for a frozen clock; nothing can change
+				fail(new IllegalStateException("No progress\n" + describe()));
+				return true;
+			}
+			// a lock may be released by a thread outside our control
+			return false;
+		}
+		notifyAll();
+		return true;
+	}
+
+	private void choose() {
+		point.tick = test.getTick();
+		int chosen;
+		try {
+			chosen = expected != null ? replayChoice() : strategy.choose(point);
+			if (!point.isEnabled(chosen))
+				throw new IllegalStateException(strategy.getClass().getName()
+						+ " chose thread " + chosen + ", which can't run");
+		} catch (Throwable e) {
+			fail(e);
+			return;
+		}
+		if (test.getTrace())
+			System.out.println("Scheduling " + names[chosen] + " at " + point.getOperation(chosen));
+		point.step++;
+		schedule.addChoice(chosen);
+		current = chosen;
+		notifyAll();
+	}
+
+	/**
+	 * @return the next choice of the schedule being replayed
+	 */
+	private int replayChoice() {
+		int i = schedule.size();
+		if (i >= expected.size() || expected.getKind(i) != Schedule.Kind.CHOICE
+				|| !point.isEnabled(expected.getThread(i)))
+			throw diverged(i, "a choice of " + describeEnabled());
+		return expected.getThread(i);
+	}
+
+	/**
+	 * Fail the run if the last decision differs from the schedule being
+	 * replayed. Callers must hold this.
+	 */
+	private void checkReplay() {
+		int i = schedule.size() - 1;
+		if (expected != null && !expected.sameAt(i, schedule))
+			fail(diverged(i, schedule.describe(i)));
+	}
+
+	private IllegalStateException diverged(int i, String actual) {
+		return new IllegalStateException("Replay diverged from the schedule at decision "
+				+ i + ": expected " + expected.describe(i) + ", but got " + actual);
+	}
+
+	private String describeEnabled() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < point.getEnabledCount(); i++)
+			sb.append(i == 0 ? "" : ", ").append(names[point.getEnabled(i)]);
+		return sb.toString();
+	}
+
+	/**
+	 * Let the threads waiting for a lock try again, once per change.
+	 *
+	 * @return true if any thread may try again
+	 */
+	private boolean retryLocks() {
+		boolean any = false;
+		for (int i = 0; i < states.length; i++) {
+			if (states[i] == LOCKED && !retried[i]) {
+				retried[i] = true;
+				states[i] = READY;
+				any = true;
+			}
+		}
+		return any;
+	}
+
+	private void clearRetries() {
+		for (int i = 0; i < retried.length; i++)
+			retried[i] = false;
+	}
+
+	/**
+	 * Advance the clock to the next tick a thread is waiting for, or a
+	 * registered tick before it, and make the threads waiting for it ready.
+	 *
+	 * @return false if no thread is waiting for a tick, or the clock is frozen
+	 */
+	private boolean advanceClock() {
+		long next = Long.MAX_VALUE;
+		for (int i = 0; i < states.length; i++)
+			if (states[i] == TICK)
+				next = Math.min(next, ticks[i]);
+		if (next == Long.MAX_VALUE || !test.clockLock.writeLock().tryLock())
+			return false;
+		try {
+			synchronized (test.lock) {
+				test.ticks.removeUpTo(test.getTick());
+				if (!test.ticks.isEmpty() && test.ticks.first() < next)
+					next = test.ticks.first();
+				test.setTick(next);
+			}
+		} finally {
+			test.clockLock.writeLock().unlock();
+		}
+		if (test.getTrace())
+			System.out.println("Time is now " + next);
+		schedule.addTick(next);
+		checkReplay();
+		for (int i = 0; i < states.length; i++)
+			if (states[i] == TICK && ticks[i] <= next)
+				states[i] = READY;
+		progress++;
+		clearRetries();
+		return true;
+	}
+
+	private int count(int state) {
+		int n = 0;
+		for (int s : states)
+			if (s == state)
+				n++;
+		return n;
+	}
+
+	private int idOf(Object object) {
+		if (object == null)
+			return -1;
+		Integer id = objectIds.get(object);
+		if (id == null) {
+			id = objectIds.size();
+			objectIds.put(object, id);
+		}
+		return id;
+	}
+
+	// ================
+	// -- Supervisor --
+	// - - - - - - - - -
+
+	/**
+	 * Check on the threads once per clock period: take the baton from a
+	 * thread that is blocked or spinning with it, advance the clock while
+	 * the threads outside the framework's control are blocked, and report a
+	 * deadlock or a lack of progress.
+	 *
+	 * @param runLimit
+	 *            the time in seconds the run may go without progress
+	 */
+	void supervise(int runLimit) {
+		Thread holder;
+		Thread[] outside;
+		synchronized (this) {
+			if (token.isCancelled())
+				return;
+			holder = current >= 0 ? threads[current] : null;
+			outside = new Thread[count(OUTSIDE)];
+			int n = 0;
+			for (int i = 0; i < states.length; i++)
+				if (states[i] == OUTSIDE)
+					outside[n++] = threads[i];
+		}
+
+		// don't hold the scheduler's monitor meanwhile, or the threads about
+		// to take it would all look blocked
+		boolean holderBlocked = holder != null && isBlocked(holder.getState());
+		boolean outsideBlocked = true;
+		boolean timedWaiting = false;
+		for (Thread t : outside) {
+			Thread.State state = t.getState();
+			if (!isBlocked(state))
+				outsideBlocked = false;
+			if (state == Thread.State.TIMED_WAITING)
+				timedWaiting = true;
+		}
+
+		synchronized (this) {
+			if (token.isCancelled())
+				return;
+			long now = System.currentTimeMillis();
+			if (progress != lastProgress) {
+				lastProgress = progress;
+				lastProgressTime = now;
+				strikes = 0;
+				return;
+			}
+			strikes++;
+			if (current >= 0 && threads[current] == holder) {
+				if (holderBlocked ? strikes >= BLOCKED_STRIKES : strikes >= SPIN_STRIKES) {
+					if (test.getTrace())
+						System.out.println("Taking the baton from " + names[current]);
+					int index = current;
+					transition(index, OUTSIDE, Operation.RESUME, null);
+				}
+			} else if (current < 0 && outsideBlocked && strikes >= BLOCKED_STRIKES) {
+				// locks may have been released by threads outside our control,
+				// so let their waiters try again
+				clearRetries();
+				schedule(true);
+				// like the clock thread, give threads in a timed wait a chance
+				if (progress == lastProgress && strikes >= DEADLOCK_STRIKES && !timedWaiting)
+					fail(new IllegalStateException("Apparent deadlock\n" + describe()));
+			}
+			if (!token.isCancelled() && now - lastProgressTime > TimeUnit.SECONDS.toMillis(runLimit))
+				fail(new IllegalStateException("No progress\n" + describe()));
+		}
+	}
+
+	private static boolean isBlocked(Thread.State state) {
+		return state == Thread.State.BLOCKED || state == Thread.State.WAITING
+				|| state == Thread.State.TIMED_WAITING;
+	}
+
+	/**
+	 * Fail the run. Callers must hold this.
+	 */
+	private void fail(Throwable t) {
+		if (error[0] == null)
+			error[0] = t;
+		synchronized (test.lock) {
+			test.markFailed();
+		}
+		mainThread.interrupt();
+		notifyAll();
+	}
+
+	/**
+	 * Describe what each unfinished thread is waiting for. Callers must hold
+	 * this.
+	 */
+	private String describe() {
+		StringWriter sw = new StringWriter();
+		PrintWriter out = new PrintWriter(sw);
+		for (int i = 0; i < states.length; i++) {
+			if (states[i] == DONE || threads[i] == null)
+				continue;
+			out.print(names[i]);
+			switch (states[i]) {
+			case TICK: out.println(" waiting for tick " + ticks[i]); break;
+			case LOCKED: out.println(" waiting for lock " + locks[i]); break;
+			case OUTSIDE: out.println(" blocked outside the framework"); break;
+			default: out.println(" at " + point.operations[i]); break;
+			}
+			for (StackTraceElement st : threads[i].getStackTrace())
+				out.println("  " + st);
+		}
+		return sw.toString();
+	}
+}
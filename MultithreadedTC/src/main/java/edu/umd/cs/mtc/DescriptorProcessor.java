@@ -0,0 +1,260 @@
+package edu.umd.cs.mtc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * An optional annotation processor that generates a {@link TestCaseDescriptor}
+ * for every concrete {@link MultithreadedTestCase} subclass it compiles. The
+ * descriptor calls the thread methods and {@link AfterThreads @AfterThreads}
+ * methods directly, so running the test does not need reflection.
+ *
+ * <p>
+ * The processor is not registered as a service, so it only runs when asked
+ * for, e.g. with <code>javac -processor edu.umd.cs.mtc.DescriptorProcessor</code>
+ * or the <code>annotationProcessors</code> setting of the Maven compiler
+ * plugin. Thread methods are found the same way they are at run time: by
+ * name for a {@link MultithreadedTestCase}, and by the {@link Threaded}
+ * annotation for a {@link MultithreadedJUnit4TestCase}. No descriptor is
+ * generated for a class if one of its methods could not be called from
+ * generated code in the same package, e.g. because it is private; such
+ * classes keep using reflection.
+ *
+ * @see TestCaseDescriptor
+ * @since 1.02
+ */
+@SupportedAnnotationTypes("*")
+public class DescriptorProcessor extends AbstractProcessor {
+
+	private final Set<String> generated = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement testCase = getTypeElement(MultithreadedTestCase.class);
+		if (testCase == null)
+			return false;
+		for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements()))
+			processType(type, testCase);
+
+		// don't claim any annotations, other processors may want them too
+		return false;
+	}
+
+	private void processType(TypeElement type, TypeElement testCase) {
+		for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements()))
+			processType(member, testCase);
+
+		Types types = processingEnv.getTypeUtils();
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)
+				|| !types.isSubtype(types.erasure(type.asType()), types.erasure(testCase.asType())))
+			return;
+
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		if (!generated.add(binaryName))
+			return;
+
+		Descriptor descriptor = describe(type);
+		if (descriptor == null)
+			return;
+		try {
+			write(binaryName + TestCaseDescriptor.SUFFIX, type, descriptor);
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Could not write test case descriptor: " + e, type);
+		}
+	}
+
+	/**
+	 * Find the methods of a test class, or return null if they can't all be
+	 * called from the descriptor.
+	 */
+	private Descriptor describe(TypeElement type) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		if (!isAccessible(type))
+			return null;
+
+		Descriptor descriptor = new Descriptor();
+		TypeElement junit4TestCase = getTypeElement(MultithreadedJUnit4TestCase.class);
+		Types types = processingEnv.getTypeUtils();
+		if (junit4TestCase != null
+				&& types.isSubtype(types.erasure(type.asType()), types.erasure(junit4TestCase.asType()))) {
+			// walk up the hierarchy, like MultithreadedJUnit4TestCase does
+			for (TypeElement c = type; c != null && !c.equals(junit4TestCase); c = getSuperclass(c)) {
+				for (ExecutableElement m : ElementFilter.methodsIn(c.getEnclosedElements())) {
+					Threaded threaded = m.getAnnotation(Threaded.class);
+					if (threaded != null) {
+						if (!isCallable(m, pkg))
+							return null;
+						String name = "".equals(threaded.value()) ? m.getSimpleName().toString() : threaded.value();
+						descriptor.threadNames.add(name);
+						descriptor.threadMethods.add(m);
+					}
+					if (m.getAnnotation(AfterThreads.class) != null) {
+						if (!isCallable(m, pkg))
+							return null;
+						descriptor.afterThreadsMethods.add(m);
+					}
+				}
+			}
+		} else {
+			// only the methods declared by the class itself count
+			for (ExecutableElement m : ElementFilter.methodsIn(type.getEnclosedElements())) {
+				if (m.getSimpleName().toString().startsWith("thread") && m.getParameters().isEmpty()
+						&& m.getReturnType().getKind() == TypeKind.VOID) {
+					if (!isCallable(m, pkg))
+						return null;
+					descriptor.threadNames.add(m.getSimpleName().toString());
+					descriptor.threadMethods.add(m);
+				}
+			}
+		}
+		return descriptor;
+	}
+
+	private void write(String descriptorName, TypeElement type, Descriptor descriptor) throws IOException {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String simpleName = pkg.isUnnamed() ? descriptorName
+				: descriptorName.substring(pkg.getQualifiedName().length() + 1);
+		String cast = "((" + type.getQualifiedName() + ") test)";
+
+		PrintWriter out = new PrintWriter(processingEnv.getFiler()
+				.createSourceFile(descriptorName, type).openWriter());
+		try {
+			if (!pkg.isUnnamed())
+				out.println("package " + pkg.getQualifiedName() + ";");
+			out.println();
+			out.println("/**");
+			out.println(" * Generated by " + DescriptorProcessor.class.getName() + ", do not edit.");
+			out.println(" */");
+			out.println("@SuppressWarnings({\"rawtypes\", \"deprecation\", \"static-access\"})");
+			out.println("public final class " + simpleName + " implements "
+					+ TestCaseDescriptor.class.getName() + " {");
+			out.println();
+			out.println("\tpublic String[] getThreadNames() {");
+			out.println("\t\treturn new String[] {" + toLiterals(descriptor.threadNames) + "};");
+			out.println("\t}");
+			out.println();
+			List<String> methodNames = new ArrayList<String>();
+			for (ExecutableElement m : descriptor.threadMethods)
+				methodNames.add(m.getSimpleName().toString());
+			out.println("\tpublic String[] getMethodNames() {");
+			out.println("\t\treturn new String[] {" + toLiterals(methodNames) + "};");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic void runThread(" + MultithreadedTestCase.class.getName()
+					+ " test, int index) throws Throwable {");
+			out.println("\t\tswitch (index) {");
+			for (int i = 0; i < methodNames.size(); i++)
+				out.println("\t\tcase " + i + ": " + cast + "." + methodNames.get(i) + "(); break;");
+			out.println("\t\tdefault: throw new IndexOutOfBoundsException(String.valueOf(index));");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+			out.println("\tpublic void runAfterThreads(" + MultithreadedTestCase.class.getName()
+					+ " test) throws Throwable {");
+			for (ExecutableElement m : descriptor.afterThreadsMethods)
+				out.println("\t\t" + cast + "." + m.getSimpleName() + "();");
+			out.println("\t}");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Whether a class can be named from its own package.
+	 */
+	private static boolean isAccessible(TypeElement type) {
+		for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether a no-argument method can be called on a test case from the
+	 * package of the test case.
+	 */
+	private boolean isCallable(ExecutableElement m, PackageElement pkg) {
+		if (!m.getParameters().isEmpty() || m.getModifiers().contains(Modifier.PRIVATE))
+			return false;
+		TypeElement owner = (TypeElement) m.getEnclosingElement();
+		if (processingEnv.getElementUtils().getPackageOf(owner).equals(pkg))
+			return true;
+		if (!m.getModifiers().contains(Modifier.PUBLIC))
+			return false;
+		for (Element e = owner; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			if (!e.getModifiers().contains(Modifier.PUBLIC))
+				return false;
+		}
+		return true;
+	}
+
+	private TypeElement getTypeElement(Class<?> c) {
+		Elements elements = processingEnv.getElementUtils();
+		return elements.getTypeElement(c.getName());
+	}
+
+	private static TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED)
+			return null;
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	private static String toLiterals(List<String> strings) {
+		StringBuilder sb = new StringBuilder();
+		for (String s : strings) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append('"');
+			for (char c : s.toCharArray()) {
+				if (c == '"' || c == '\\')
+					sb.append('\\').append(c);
+				else if (c < ' ' || c > '~')
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+			sb.append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The methods of a test class, in the order they are described
+	 */
+	private static class Descriptor {
+		final List<String> threadNames = new ArrayList<String>();
+		final List<ExecutableElement> threadMethods = new ArrayList<ExecutableElement>();
+		final List<ExecutableElement> afterThreadsMethods = new ArrayList<ExecutableElement>();
+	}
+}
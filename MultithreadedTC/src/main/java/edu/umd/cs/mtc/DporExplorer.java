@@ -0,0 +1,181 @@
+package edu.umd.cs.mtc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.umd.cs.mtc.ExplorationStrategy.Step;
+
+/**
+ * Explores the schedules of a test case with dynamic partial-order
+ * reduction. The first run lets each thread run as long as it can. After
+ * each run, the next step of every thread at every state of the run is
+ * compared with the earlier steps of the other threads. Where the last
+ * earlier step that is dependent on it, i.e. the two steps may not commute,
+ * does not already happen before the thread's own steps, the thread is
+ * marked to be tried at the earlier state instead. The next run follows the
+ * current run up to the deepest state with a thread left to try, and tries
+ * it. Schedules that only reorder independent steps are never run.
+ *
+ * <p>
+ * Two steps are independent if they start at yield points with different
+ * objects, e.g. {@link MultithreadedTestCase#mayYieldOn(Object)} with
+ * different objects, or {@link MultithreadedTestCase#lockOn(java.util.concurrent.locks.Lock)}
+ * with different locks. Steps starting at yield points without an object
+ * are dependent on every other step. Every run uses the same seed, and the
+ * test must be deterministic apart from the schedule, or the exploration
+ * fails.
+ *
+ * @see "Flanagan and Godefroid, Dynamic Partial-Order Reduction for Model
+ *      Checking Software, POPL 2005"
+ * @since 1.02
+ */
+class DporExplorer {
+
+	private final MultithreadedTestCase test;
+	private final int maxRuns;
+	private final long seed;
+
+	/** The steps of the current path, one per state */
+	private final List<Step> path = new ArrayList<Step>();
+
+	/** The threads to try at each state of the path */
+	private final List<BitSet> backtrack = new ArrayList<BitSet>();
+
+	/** The threads tried at each state of the path */
+	private final List<BitSet> done = new ArrayList<BitSet>();
+
+	private long pruned;
+
+	/**
+	 * @param maxRuns
+	 *            the largest number of schedules to run
+	 */
+	DporExplorer(MultithreadedTestCase test, int maxRuns, long seed) {
+		this.test = test;
+		this.maxRuns = maxRuns;
+		this.seed = seed;
+	}
+
+	ExplorationReport explore() throws Throwable {
+		ExplorationStrategy strategy = new ExplorationStrategy();
+		ScheduleStrategy original = test.getScheduleStrategy();
+		test.setScheduleStrategy(strategy);
+		try {
+			int[] prefix = new int[0];
+			int runs = 0;
+			while (true) {
+				List<Step> steps = strategy.run(test, prefix, seed);
+				runs++;
+				extendPath(steps, Math.max(0, prefix.length - 1));
+				prefix = nextPrefix();
+				if (prefix == null)
+					return new ExplorationReport(runs, pruned, true, seed);
+				if (runs >= maxRuns)
+					return new ExplorationReport(runs, pruned, false, seed);
+			}
+		} finally {
+			test.setScheduleStrategy(original);
+		}
+	}
+
+	/**
+	 * Replace the path from a state on with the steps of the last run, and
+	 * find the states where other threads should be tried.
+	 */
+	private void extendPath(List<Step> steps, int from) {
+		for (int i = from; i < steps.size(); i++) {
+			Step step = steps.get(i);
+			if (i < path.size()) {
+				path.set(i, step);
+			} else {
+				path.add(step);
+				backtrack.add(new BitSet());
+				BitSet tried = new BitSet();
+				tried.set(step.chosen);
+				done.add(tried);
+			}
+		}
+
+		// the vector clock of each thread: for every thread, the last of its
+		// steps that happens before the thread's current state
+		int n = path.isEmpty() ? 0 : path.get(0).operations.length;
+		int[][] threadClocks = new int[n][n];
+		for (int[] clock : threadClocks)
+			Arrays.fill(clock, -1);
+		int[][] stepClocks = new int[path.size()][];
+		for (int k = 0; k < path.size(); k++) {
+			Step state = path.get(k);
+			if (k >= from) {
+				for (int thread = 0; thread < n; thread++) {
+					if (state.operations[thread] != null)
+						addBacktrack(k, thread, state, threadClocks[thread]);
+				}
+			}
+
+			// a step happens after the earlier steps it is dependent on
+			int[] clock = threadClocks[state.chosen].clone();
+			for (int i = 0; i < k; i++) {
+				Step step = path.get(i);
+				if (step.chosen != state.chosen && step.isDependent(
+						state.operations[state.chosen], state.objects[state.chosen])) {
+					for (int t = 0; t < n; t++)
+						clock[t] = Math.max(clock[t], stepClocks[i][t]);
+				}
+			}
+			clock[state.chosen] = k;
+			stepClocks[k] = clock;
+			threadClocks[state.chosen] = clock;
+		}
+	}
+
+	/**
+	 * Find the last step before state k that is dependent on the next step
+	 * of the thread, and does not happen before it anyway, and mark the
+	 * thread to be tried before it.
+	 */
+	private void addBacktrack(int k, int thread, Step state, int[] threadClock) {
+		for (int i = k - 1; i >= 0; i--) {
+			Step step = path.get(i);
+			if (step.chosen == thread || i <= threadClock[step.chosen]
+					|| !step.isDependent(state.operations[thread], state.objects[thread]))
+				continue;
+			if (step.isEnabled(thread)) {
+				backtrack.get(i).set(thread);
+			} else {
+				for (int t : step.enabled)
+					backtrack.get(i).set(t);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Pop the states with nothing left to try, and choose the next thread to
+	 * try at the deepest remaining state.
+	 *
+	 * @return the prefix of the next run, or null if the exploration is
+	 *         complete
+	 */
+	private int[] nextPrefix() {
+		for (int i = path.size() - 1; i >= 0; i--) {
+			BitSet left = (BitSet) backtrack.get(i).clone();
+			left.andNot(done.get(i));
+			if (!left.isEmpty()) {
+				int thread = left.nextSetBit(0);
+				done.get(i).set(thread);
+				int[] prefix = new int[i + 1];
+				for (int j = 0; j < i; j++)
+					prefix[j] = path.get(j).chosen;
+				prefix[i] = thread;
+				return prefix;
+			}
+			pruned += path.get(i).enabled.length - done.get(i).cardinality();
+			path.remove(i);
+			backtrack.remove(i);
+			done.remove(i);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,87 @@
+package edu.umd.cs.mtc;
+
+/**
+ * The outcome of a systematic exploration of the schedules of a test case
+ * that did not fail.
+ *
+ * @see TestFramework#explore(MultithreadedTestCase, int)
+ * @see TestFramework#exploreBounded(MultithreadedTestCase, int, long)
+ * @since 1.02
+ */
+public final class ExplorationReport {
+
+	private final int runs;
+	private final long pruned;
+	private final boolean complete;
+	private final long seed;
+	private final int preemptions;
+
+	ExplorationReport(int runs, long pruned, boolean complete, long seed) {
+		this(runs, pruned, complete, seed, complete ? Integer.MAX_VALUE : -1);
+	}
+
+	ExplorationReport(int runs, long pruned, boolean complete, long seed, int preemptions) {
+		this.runs = runs;
+		this.pruned = pruned;
+		this.complete = complete;
+		this.seed = seed;
+		this.preemptions = preemptions;
+	}
+
+	/**
+	 * @return the number of schedules run
+	 */
+	public int getRuns() {
+		return runs;
+	}
+
+	/**
+	 * @return the number of choices that were not explored: with
+	 *         {@link TestFramework#explore(MultithreadedTestCase, int)},
+	 *         because they would only have reordered independent steps, and
+	 *         with
+	 *         {@link TestFramework#exploreBounded(MultithreadedTestCase, int, long)},
+	 *         because they needed more preemptions than were explored
+	 */
+	public long getPruned() {
+		return pruned;
+	}
+
+	/**
+	 * @return true if every schedule was covered, false if the exploration
+	 *         stopped at its bound or ran out of time
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the largest number of preemptions for which every schedule
+	 *         needing at most that many was covered, Integer.MAX_VALUE if
+	 *         the exploration is complete, or -1 if not even the schedules
+	 *         without preemptions were
+	 */
+	public int getPreemptions() {
+		return preemptions;
+	}
+
+	/**
+	 * @return the seed every run was made with
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		String coverage;
+		if (complete)
+			coverage = "complete";
+		else if (preemptions >= 0)
+			coverage = "complete up to " + preemptions + " preemptions";
+		else
+			coverage = "stopped at the bound";
+		return "Explored " + runs + " schedules, pruned " + pruned + " choices, "
+				+ coverage + " (seed " + seed + ")";
+	}
+}
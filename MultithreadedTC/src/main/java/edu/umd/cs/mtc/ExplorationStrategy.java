@@ -0,0 +1,101 @@
+package edu.umd.cs.mtc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.umd.cs.mtc.SchedulePoint.Operation;
+
+/**
+ * The strategy of systematic exploration. It follows a given prefix of
+ * choices, and then lets the thread that ran last keep running as long as it
+ * can, switching to the lowest numbered thread that can run when it can't.
+ * Every decision is recorded as a {@link Step}, from which the explorers
+ * pick the prefix of the next run.
+ *
+ * @see DporExplorer
+ * @see BoundedExplorer
+ * @since 1.02
+ */
+class ExplorationStrategy implements ScheduleStrategy {
+
+	/**
+	 * A decision of a run: the state the threads were in, and the thread
+	 * that was chosen.
+	 */
+	static final class Step {
+		final int chosen;
+		final int previous;
+		final int[] enabled;
+		final Operation[] operations;
+		final int[] objects;
+
+		Step(SchedulePoint point, int chosen) {
+			this.chosen = chosen;
+			this.previous = point.getPrevious();
+			this.enabled = Arrays.copyOf(point.enabled, point.enabledCount);
+			this.operations = point.operations.clone();
+			this.objects = point.objects.clone();
+		}
+
+		boolean isEnabled(int thread) {
+			return Arrays.binarySearch(enabled, thread) >= 0;
+		}
+
+		/**
+		 * @return true if choosing the thread would preempt the thread that
+		 *         ran last
+		 */
+		boolean isPreemption(int thread) {
+			return previous >= 0 && thread != previous && isEnabled(previous);
+		}
+
+		/**
+		 * @return true if the next step of a thread and the step of the
+		 *         chosen thread may not commute. Steps at yield points without
+		 *         an object may access anything.
+		 */
+		boolean isDependent(Operation operation, int object) {
+			int chosenObject = objects[chosen];
+			if (operation == null || operations[chosen] == null)
+				return false;
+			return object < 0 || chosenObject < 0 || object == chosenObject;
+		}
+	}
+
+	private int[] prefix = new int[0];
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	/**
+	 * Run the test case once, starting with the given choices. The test case
+	 * must have this as its strategy.
+	 *
+	 * @return the decisions of the run
+	 */
+	List<Step> run(MultithreadedTestCase test, int[] prefix, long seed) throws Throwable {
+		this.prefix = prefix;
+		TestFramework.runOnce(test, null, null, seed);
+		return steps;
+	}
+
+	public void startRun(int threadCount, Random random) {
+		steps.clear();
+	}
+
+	public int choose(SchedulePoint point) {
+		int i = point.getStep();
+		int chosen;
+		if (i < prefix.length) {
+			chosen = prefix[i];
+			if (!point.isEnabled(chosen))
+				throw new IllegalStateException("Exploration diverged at step " + i
+						+ ": " + point.getThreadName(chosen) + " can't run; is the test deterministic?");
+		} else {
+			chosen = point.isPreemptible() ? point.getPrevious() : point.getEnabled(0);
+		}
+		steps.add(new Step(point, chosen));
+		return chosen;
+	}
+}
@@ -0,0 +1,67 @@
+package edu.umd.cs.mtc;
+
+/**
+ * The outcome of fuzzing the schedules of a test case that did not fail.
+ *
+ * @see TestFramework#fuzz(MultithreadedTestCase, java.io.File, int, long)
+ * @since 1.02
+ */
+public final class FuzzReport {
+
+	private final int runs;
+	private final int corpusSize;
+	private final int added;
+	private final int coverage;
+	private final long seed;
+
+	FuzzReport(int runs, int corpusSize, int added, int coverage, long seed) {
+		this.runs = runs;
+		this.corpusSize = corpusSize;
+		this.added = added;
+		this.coverage = coverage;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the number of runs, including those of the schedules already
+	 *         in the corpus
+	 */
+	public int getRuns() {
+		return runs;
+	}
+
+	/**
+	 * @return the number of schedules in the corpus at the end
+	 */
+	public int getCorpusSize() {
+		return corpusSize;
+	}
+
+	/**
+	 * @return the number of schedules added to the corpus, because they
+	 *         reached new coverage
+	 */
+	public int getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return the number of distinct coverage signals reached
+	 */
+	public int getCoverage() {
+		return coverage;
+	}
+
+	/**
+	 * @return the seed of the fuzzer's own random choices
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		return "Fuzzed " + runs + " schedules, " + coverage + " coverage signals, added "
+				+ added + " of " + corpusSize + " schedules to the corpus (seed " + seed + ")";
+	}
+}
@@ -15,4 +15,13 @@ import java.lang.annotation.Target;
 @Target({ ElementType.METHOD })
 public @interface Multithreaded {
 	int times() default 1;
-}
\ No newline at end of file
+
+	/**
+	 * the factory for the threads running the thread methods, which must have
+	 * a public no-argument constructor; if not given, the test case's own
+	 * setting is used
+	 * 
+	 * @since 1.02
+	 */
+	Class<? extends TestThreadFactory> threadFactory() default TestThreadFactory.class;
+}
@@ -10,6 +10,17 @@ import org.junit.runner.RunWith;
 @RunWith(MultithreadedRunner.class)
 public class MultithreadedJUnit4TestCase extends MultithreadedTestCase {
 
+	/**
+	 * The {@link Threaded @Threaded} and {@link AfterThreads @AfterThreads}
+	 * methods of each test class, found once and reused by every run.
+	 */
+	private static final ClassValue<Metadata> metadataByClass = new ClassValue<Metadata>() {
+		@Override
+		protected Metadata computeValue(Class<?> type) {
+			return new Metadata(type);
+		}
+	};
+
 	/**
 	 * Suppresses calls to {@link #initialize()}. To get the same functionality,
 	 * use JUnit 4's {@code @Before} annotation.
@@ -24,26 +35,33 @@ public class MultithreadedJUnit4TestCase extends MultithreadedTestCase {
 	 */
 	@Override
 	public void onFinish() throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {		
-		// call parent @AfterThreads after child @AfterThreads
-		for (Class<?> c : getSuperClasses()) {
-			for (Method m : c.getDeclaredMethods()) {
-				if (m.isAnnotationPresent(AfterThreads.class)) {
-					try {
-						m.invoke(this);
-					} catch (InvocationTargetException e) {
-						Throwable cause = e.getCause();
-						if (cause != null && cause instanceof AssertionError) {
-							// throw AssertionError so JUnit sees failed test
-							// and not an error
-							throw (AssertionError) cause;
-						} else {
-							throw e;
-						}
-					}
+		Metadata metadata = metadataByClass.get(getClass());
+		if (metadata.descriptor != null) {
+			try {
+				metadata.descriptor.runAfterThreads(this);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+			return;
+		}
+		for (Method m : metadata.afterThreadsMethods) {
+			try {
+				m.invoke(this);
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				if (cause != null && cause instanceof AssertionError) {
+					// throw AssertionError so JUnit sees failed test
+					// and not an error
+					throw (AssertionError) cause;
+				} else {
+					throw e;
 				}
 			}
 		}
-
 	}
 
 	/**
@@ -51,33 +69,18 @@ public class MultithreadedJUnit4TestCase extends MultithreadedTestCase {
 	 */
 	@Override
 	public ThreadedMethod[] getThreadedMethods() {
-		List<ThreadedMethod> threadedMethods = new ArrayList<ThreadedMethod>();
-
-		for (Class<?> eachClass : getSuperClasses()) {
-			Method[] methods = eachClass.getDeclaredMethods();
-			for (Method method : methods) {
-				Threaded annotation = method.getAnnotation(Threaded.class);
-				if (annotation != null) {
-					if ("".equals(annotation.value())) {
-						threadedMethods.add(new ThreadedMethod(method.getName(), method));
-					} else {
-						threadedMethods.add(new ThreadedMethod(annotation.value(), method));
-					}
-				}
-			}
-		}
-		return threadedMethods.toArray(new ThreadedMethod[threadedMethods.size()]);
+		return metadataByClass.get(getClass()).threadedMethods.clone();
 	}
 
 	/**
 	 * Get list of superclasses. The order of the resulting list is up the class
-	 * hierarchy, starting with the current class. For example, if Foo extends
+	 * hierarchy, starting with the given class. For example, if Foo extends
 	 * Bar extends MulithreadedJUnit4TestCase, then calling this method on Foo
 	 * will return [Foo, Bar].
 	 */
-	private List<Class<?>> getSuperClasses() {
+	private static List<Class<?>> getSuperClasses(Class<?> type) {
 		ArrayList<Class<?>> results = new ArrayList<Class<?>>();
-		Class<?> current = getClass();
+		Class<?> current = type;
 
 		// stop when we hit MultithreadedJUnit4TestCase
 		while (current != null && current != MultithreadedJUnit4TestCase.class) {
@@ -86,4 +89,55 @@ public class MultithreadedJUnit4TestCase extends MultithreadedTestCase {
 		}
 		return results;
 	}
+
+	/**
+	 * The annotated methods of a test class, or its generated descriptor.
+	 */
+	private static class Metadata {
+
+		final ThreadedMethod[] threadedMethods;
+
+		/**
+		 * Calls the @AfterThreads methods if the class has a descriptor, in
+		 * which case {@link #afterThreadsMethods} is empty
+		 */
+		final TestCaseDescriptor descriptor;
+
+		/**
+		 * In the order they are called: parent @AfterThreads after child
+		 * @AfterThreads
+		 */
+		final Method[] afterThreadsMethods;
+
+		Metadata(Class<?> type) {
+			descriptor = findDescriptor(type);
+			if (descriptor != null) {
+				threadedMethods = getThreadedMethods(type, descriptor);
+				afterThreadsMethods = new Method[0];
+				return;
+			}
+
+			List<ThreadedMethod> threaded = new ArrayList<ThreadedMethod>();
+			List<Method> afterThreads = new ArrayList<Method>();
+
+			for (Class<?> eachClass : getSuperClasses(type)) {
+				Method[] methods = eachClass.getDeclaredMethods();
+				for (Method method : methods) {
+					Threaded annotation = method.getAnnotation(Threaded.class);
+					if (annotation != null) {
+						if ("".equals(annotation.value())) {
+							threaded.add(new ThreadedMethod(method.getName(), method));
+						} else {
+							threaded.add(new ThreadedMethod(annotation.value(), method));
+						}
+					}
+					if (method.isAnnotationPresent(AfterThreads.class)) {
+						afterThreads.add(method);
+					}
+				}
+			}
+			threadedMethods = threaded.toArray(new ThreadedMethod[threaded.size()]);
+			afterThreadsMethods = afterThreads.toArray(new Method[afterThreads.size()]);
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package edu.umd.cs.mtc;
 
+import java.lang.reflect.InvocationTargetException;
+
 import org.junit.internal.runners.statements.InvokeMethod;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
@@ -28,6 +30,16 @@ public class MultithreadedRunner extends BlockJUnit4ClassRunner {
 		Multithreaded multithreadedAnnotation = method.getAnnotation(Multithreaded.class);
 
 		if (multithreadedAnnotation != null) {
+			Class<? extends TestThreadFactory> factory = multithreadedAnnotation.threadFactory();
+			if (factory != TestThreadFactory.class) {
+				try {
+					testCase.setThreadFactory(factory.getDeclaredConstructor().newInstance());
+				} catch (InvocationTargetException e) {
+					throw new IllegalArgumentException("Cannot create thread factory " + factory.getName(), e.getCause());
+				} catch (Exception e) {
+					throw new IllegalArgumentException("Cannot create thread factory " + factory.getName(), e);
+				}
+			}
 			return new MultithreadedInvokeMethod(method, testCase, multithreadedAnnotation.times());
 		} else {
 			return new MultithreadedInvokeMethod(method, testCase, 1);
@@ -2,19 +2,19 @@ package edu.umd.cs.mtc;
 
 import static org.junit.Assert.assertEquals;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.SortedSet;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -79,7 +79,7 @@ abstract public class MultithreadedTestCase {
 	 * @see #freezeClock()
 	 * @see #unfreezeClock()
 	 */
-	private long clock;
+	private volatile long clock;
 
 	/**
 	 * The primary lock to synchronize on in this test case before accessing
@@ -94,11 +94,99 @@ abstract public class MultithreadedTestCase {
 	private boolean trace = Boolean.getBoolean("tunit.trace");
 
 	/**
-	 * This flag is set to true when a test fails due to deadlock or timeout.
+	 * If true, the clock thread is woken up whenever a test thread blocks or
+	 * unblocks in one of the framework's wait methods, rather than only
+	 * checking the threads once every clock period.
+	 * 
+	 * @see TestFramework#EVENTCLOCK_KEY
+	 */
+	private boolean eventDrivenClock = Boolean.getBoolean(TestFramework.EVENTCLOCK_KEY);
+
+	/**
+	 * If true, running this test case many times reuses the same threads for
+	 * every run.
+	 * 
+	 * @see TestFramework#POOLEDTHREADS_KEY
+	 */
+	private boolean pooledThreads = Boolean.getBoolean(TestFramework.POOLEDTHREADS_KEY);
+
+	/**
+	 * If true, the thread methods run on virtual threads.
+	 * 
+	 * @see TestFramework#VIRTUALTHREADS_KEY
+	 * @see VirtualThreads
+	 */
+	private boolean virtualThreads = Boolean.getBoolean(TestFramework.VIRTUALTHREADS_KEY)
+			|| getClass().isAnnotationPresent(VirtualThreads.class);
+
+	/**
+	 * The factory set with {@link #setThreadFactory(TestThreadFactory)}, or
+	 * null.
+	 */
+	private TestThreadFactory threadFactory;
+
+	/**
+	 * The factory named by the system property, or null.
+	 * 
+	 * @see TestFramework#THREADFACTORY_KEY
+	 */
+	private final TestThreadFactory globalThreadFactory = newInstance(
+			System.getProperty(TestFramework.THREADFACTORY_KEY), TestThreadFactory.class);
+
+	private static final TestThreadFactory VIRTUAL_THREAD_FACTORY = new TestThreadFactories.Virtual();
+
+	/**
+	 * If true, the threads of a run busy-wait for each other before running
+	 * their thread methods.
+	 * 
+	 * @see TestFramework#SPINSTART_KEY
+	 */
+	private boolean spinStart = Boolean.getBoolean(TestFramework.SPINSTART_KEY);
+
+	/**
+	 * The longest random delay in nanoseconds after the threads of a run have
+	 * started.
+	 * 
+	 * @see TestFramework#STARTJITTER_KEY
+	 */
+	private long startJitter = Long.getLong(TestFramework.STARTJITTER_KEY, 0L);
+
+	/**
+	 * The strategy of controlled scheduling, or null to let the threads run
+	 * freely.
+	 * 
+	 * @see TestFramework#SCHEDULER_KEY
+	 */
+	private ScheduleStrategy scheduleStrategy = newInstance(
+			System.getProperty(TestFramework.SCHEDULER_KEY), ScheduleStrategy.class);
+
+	/**
+	 * The scheduler of the current run, or null if it is not controlled.
+	 */
+	volatile ControlledScheduler scheduler;
+
+	/**
+	 * The schedule to replay in the next run, or null
+	 */
+	volatile Schedule replaying;
+
+	/**
+	 * The schedule of the last controlled run, or null
+	 */
+	volatile Schedule lastSchedule;
+
+	/**
+	 * The cancellation token of the current run, which is cancelled when the
+	 * run fails due to deadlock, timeout or an exception in a thread.
 	 * 
 	 * @see TestFramework
 	 */
-	boolean failed;
+	volatile CancellationToken cancellation = new CancellationToken();
+
+	/**
+	 * The cancellation token of the run the current thread belongs to.
+	 */
+	static ThreadLocal<CancellationToken> currentCancellation = new ThreadLocal<CancellationToken>();
 
 	/**
 	 * This method is invoked in a test run before any test threads have
@@ -146,14 +234,185 @@ abstract public class MultithreadedTestCase {
 		return trace;
 	}
 
+	/**
+	 * With an event-driven clock, the clock advances as soon as every thread
+	 * is waiting in {@link #waitForTick(long)} for a future tick, since only
+	 * the clock can release them. A thread blocked in
+	 * {@link #waitOn(Object)}, {@link #awaitOn(Condition)} or
+	 * {@link #lockOn(Lock)} may already have been released by another thread
+	 * without the clock seeing it, so as long as any thread is blocked in
+	 * another way, the clock still waits for the threads to stay blocked for
+	 * two clock periods; events from those methods only make it re-examine
+	 * the threads sooner.
+	 * 
+	 * @param eventDrivenClock
+	 *            true if the clock thread should react to blocking and
+	 *            unblocking events instead of only polling the test threads
+	 */
+	public void setEventDrivenClock(boolean eventDrivenClock) {
+		this.eventDrivenClock = eventDrivenClock;
+	}
+
+	/**
+	 * @return true if the clock thread reacts to blocking and unblocking events
+	 */
+	public boolean isEventDrivenClock() {
+		return eventDrivenClock;
+	}
+
+	/**
+	 * @param pooledThreads
+	 *            true if {@link TestFramework#runManyTimes(MultithreadedTestCase, int)}
+	 *            should run every iteration in the same, pooled threads
+	 *            instead of creating new ones. Thread-local state set by the
+	 *            thread methods themselves is not cleared between runs.
+	 */
+	public void setPooledThreads(boolean pooledThreads) {
+		this.pooledThreads = pooledThreads;
+	}
+
+	/**
+	 * @return true if running this test case many times reuses its threads
+	 */
+	public boolean isPooledThreads() {
+		return pooledThreads;
+	}
+
+	/**
+	 * @param virtualThreads
+	 *            true if the thread methods should run on virtual threads
+	 *            instead of platform threads, if the JVM supports them.
+	 *            With {@link #setPooledThreads(boolean)}, the pooled threads
+	 *            are virtual threads.
+	 * @see VirtualThreads
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @return true if the thread methods run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @param threadFactory
+	 *            the factory creating the threads that run the thread
+	 *            methods, or null to use the default. A factory takes
+	 *            precedence over {@link #setVirtualThreads(boolean)}. With
+	 *            {@link #setPooledThreads(boolean)}, the pooled threads are
+	 *            made by the factory.
+	 * @see TestThreadFactories
+	 */
+	public void setThreadFactory(TestThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * @return the factory creating the threads that run the thread methods:
+	 *         the one set with {@link #setThreadFactory(TestThreadFactory)},
+	 *         else one making virtual threads if {@link #isVirtualThreads()}
+	 *         and the JVM has them, else the one named by
+	 *         {@link TestFramework#THREADFACTORY_KEY}, else null to use
+	 *         the default threads
+	 */
+	public TestThreadFactory getThreadFactory() {
+		if (threadFactory != null)
+			return threadFactory;
+		if (virtualThreads && VirtualThreadFactory.isSupported())
+			return VIRTUAL_THREAD_FACTORY;
+		return globalThreadFactory;
+	}
+
+	/**
+	 * @param spinStart
+	 *            true if the threads of a run should busy-wait for each other
+	 *            instead of blocking, so that the thread methods start within
+	 *            a fraction of a microsecond of each other. This burns CPU
+	 *            while the threads are being started, and helps most when
+	 *            there are at least as many processors as threads.
+	 */
+	public void setSpinStart(boolean spinStart) {
+		this.spinStart = spinStart;
+	}
+
+	/**
+	 * @return true if the threads of a run busy-wait for each other
+	 */
+	public boolean isSpinStart() {
+		return spinStart;
+	}
+
+	/**
+	 * @param startJitter
+	 *            the longest random delay, in nanoseconds, that each thread
+	 *            waits between being released with the others and running its
+	 *            thread method, or 0 for none
+	 */
+	public void setStartJitter(long startJitter) {
+		if (startJitter < 0)
+			throw new IllegalArgumentException("Negative start jitter: " + startJitter);
+		this.startJitter = startJitter;
+	}
+
+	/**
+	 * @return the longest random delay in nanoseconds after the threads of a
+	 *         run have started
+	 */
+	public long getStartJitter() {
+		return startJitter;
+	}
+
+	/**
+	 * @param strategy
+	 *            the strategy picking the thread to run at each of the
+	 *            framework's yield points, or null to let the threads run
+	 *            freely. With a strategy, only one thread method runs at a
+	 *            time, the clock advances as soon as no thread can run, and
+	 *            a run is repeated by running it with the same seed.
+	 *            Busy-wait loops in thread methods should call
+	 *            {@link #mayYield()} to let the other threads run.
+	 * @see ScheduleStrategy
+	 * @see ScheduleStrategies
+	 */
+	public void setScheduleStrategy(ScheduleStrategy strategy) {
+		this.scheduleStrategy = strategy;
+	}
+
+	/**
+	 * @return the strategy of controlled scheduling, or null if the threads
+	 *         run freely
+	 */
+	public ScheduleStrategy getScheduleStrategy() {
+		return scheduleStrategy;
+	}
+
+	/**
+	 * Create an instance of the class named by a system property.
+	 * 
+	 * @return the instance, or null if no class is named
+	 */
+	private static <T> T newInstance(String className, Class<T> type) {
+		if (className == null || className.length() == 0)
+			return null;
+		try {
+			return Class.forName(className).asSubclass(type).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Cannot create " + type.getSimpleName() 
+					+ " " + className, e);
+		}
+	}
+
 	// =======================
 	// -- Thread Management --
 	// - - - - - - - - - - - -
 
 	/**
-	 * Map each thread to the clock tick it is waiting for.
+	 * The threads in the current run and the clock tick each is waiting for.
 	 */
-	IdentityHashMap<Thread, Long> threads = new IdentityHashMap<Thread, Long>();
+	final ThreadRegistry threads = new ThreadRegistry();
 
 	/**
 	 * ThreadLocal containing a reference to the current instance of this class
@@ -169,11 +428,17 @@ abstract public class MultithreadedTestCase {
 	 */
 	void hello() {
 		currentTestCase.set(this);
+		currentCancellation.set(cancellation);
+		skipNextWait.set(false); // a pooled thread may have left it set
 		synchronized (lock) {
 			Thread currentThread = Thread.currentThread();
-			threads.put(currentThread, 0L);
+			int slot = threads.register(currentThread);
+			threads.setWaitingFor(slot, 0L);
+			threads.started(slot);
 		}
-
+		ControlledScheduler s = scheduler;
+		if (s != null && s.isControlled() && !s.begin())
+			throw new RuntimeException("Test case has failed");
 	}
 
 	/**
@@ -183,9 +448,62 @@ abstract public class MultithreadedTestCase {
 	void goodbye() {
 		synchronized (lock) {
 			Thread currentThread = Thread.currentThread();
-			threads.remove(currentThread);
+			threads.depart(threads.register(currentThread));
 		}
+		ControlledScheduler s = scheduler;
+		if (s != null)
+			s.end();
 		currentTestCase.set(null);
+		currentCancellation.set(null);
+		currentRandom.set(null);
+		clockEvent();
+	}
+
+	/**
+	 * Start a new run with a fresh cancellation token. To be invoked only by
+	 * the {@link TestFramework}, before any thread of the run is started.
+	 * 
+	 * @param seed
+	 *            the seed of the run's random choices
+	 */
+	void startRun(long seed) {
+		cancellation = new CancellationToken();
+		runSeed = seed;
+	}
+
+	/**
+	 * @return the cancellation token of the run the current thread belongs to
+	 */
+	private CancellationToken getCancellation() {
+		CancellationToken token = currentCancellation.get();
+		return token != null ? token : cancellation;
+	}
+
+	/**
+	 * @return true if the run the current thread belongs to has been cancelled
+	 */
+	private static boolean isCancelled() {
+		CancellationToken token = currentCancellation.get();
+		return token != null && token.isCancelled();
+	}
+
+	/**
+	 * The clock thread regulating the current run, or null if there is none.
+	 */
+	volatile Thread clockThread;
+
+	/**
+	 * Wake up the clock thread so that it re-examines the test threads right
+	 * away. This is called whenever a test thread blocks or unblocks in one of
+	 * the framework's wait methods, and does nothing unless the clock is
+	 * event-driven.
+	 * 
+	 * @see #setEventDrivenClock(boolean)
+	 */
+	void clockEvent() {
+		Thread t = clockThread;
+		if (t != null && eventDrivenClock)
+			LockSupport.unpark(t);
 	}
 
 	/**
@@ -251,6 +569,27 @@ abstract public class MultithreadedTestCase {
 		}
 	}
 
+	/**
+	 * Make a thread created by the test itself, rather than by the framework,
+	 * take part in the current run. The clock thread treats it like a thread
+	 * method's thread: the clock does not advance while it is running, and it
+	 * counts towards deadlock detection, until it terminates. It may call
+	 * {@link #waitForTick(long)} and the other framework methods.
+	 * 
+	 * <p>
+	 * Call this from {@link #initialize()} or a thread method, before starting
+	 * the thread. Registrations are forgotten at the end of each run.
+	 * 
+	 * @param t
+	 *            the thread to register
+	 * @since 1.02
+	 */
+	public void registerThread(Thread t) {
+		synchronized (lock) {
+			threads.register(t);
+		}
+	}
+
 	// ===========================
 	// -- Clock tick management --
 	// - - - - - - - - - - - - - -
@@ -263,21 +602,40 @@ abstract public class MultithreadedTestCase {
 	 *            the tick value to wait for
 	 */
 	public void waitForTick(long c) {
-		synchronized (lock) {
-			threads.put(Thread.currentThread(), c);
-			while (!failed && clock < c)
-				try {
-					if (getTrace())
-						System.out.println(Thread.currentThread().getName() + " is waiting for time " + c);
-					lock.wait();
-				} catch (InterruptedException e) {
-					throw new AssertionError(e);
-				}
-			if (failed)
+		ControlledScheduler s = scheduler;
+		if (s != null && s.isControlled()) {
+			if (!s.waitForTick(c))
 				throw new IllegalStateException("Clock never reached " + c);
+			return;
+		}
+		Thread currentThread = Thread.currentThread();
+		CancellationToken token = getCancellation();
+		synchronized (lock) {
+			threads.setWaitingFor(threads.register(currentThread), c);
+			if (clock < c) {
+				tickWaiters.add(c, currentThread);
+				clockEvent();
+			}
+		}
+		// the clock thread publishes the new tick before unparking us
+		while (!token.isCancelled() && clock < c) {
 			if (getTrace())
-				System.out.println("Releasing " + Thread.currentThread().getName() + " at time " + clock);
+				System.out.println(currentThread.getName() + " is waiting for time " + c);
+			LockSupport.park(this);
+			if (Thread.interrupted()) {
+				synchronized (lock) {
+					tickWaiters.remove(currentThread);
+					threads.setWaitingFor(threads.register(currentThread), 0L);
+				}
+				if (token.isCancelled())
+					break;
+				throw new AssertionError(new InterruptedException());
+			}
 		}
+		if (token.isCancelled())
+			throw new IllegalStateException("Clock never reached " + c);
+		if (getTrace())
+			System.out.println("Releasing " + currentThread.getName() + " at time " + clock);
 	}
 
 	/**
@@ -297,32 +655,52 @@ abstract public class MultithreadedTestCase {
 
 	/**
 	 * Gets the current value of the thread metronome. Primarily useful in
-	 * assert statements.
+	 * assert statements. This does not acquire any locks, so it never contends
+	 * with the clock thread.
 	 * 
 	 * @see #assertTick(long)
 	 * 
 	 * @return the current tick value
 	 */
 	public long getTick() {
-		synchronized (lock) {
-			return clock;
-		}
+		return clock;
 	}
 
 	/**
 	 * Advances the clock. To be invoked only by the {@link TestFramework}.
+	 * The new tick is published before any {@link TickListener} is notified,
+	 * and threads waiting for this tick or an earlier one are released after
+	 * that.
 	 * 
 	 * @see #getTick()
 	 * 
 	 * @param tick
 	 *            The new clock tick value.
+	 * @return the number of threads released
 	 */
-	void setTick(long tick) {
+	int setTick(long tick) {
 		long oldTick = clock;
 		clock = tick;
 		if (tick > oldTick) {
 			notifyListeners(tick);
+			return tickWaiters.releaseUpTo(tick);
 		}
+		return 0;
+	}
+
+	/**
+	 * The threads blocked in {@link #waitForTick(long)}, ordered by the tick
+	 * they are waiting for.
+	 */
+	final TickWaitQueue tickWaiters = new TickWaitQueue();
+
+	/**
+	 * Cancel the current run and release every thread waiting for a tick,
+	 * which will then throw an exception. Callers must hold {@link #lock}.
+	 */
+	void markFailed() {
+		cancellation.cancel();
+		tickWaiters.releaseUpTo(Long.MAX_VALUE);
 	}
 
 	/**
@@ -413,20 +791,31 @@ abstract public class MultithreadedTestCase {
 	static public void waitOn(Object o) {
 		// System.out.println("About to wait on " + System.identityHashCode(o));
 		MultithreadedTestCase thisTestCase = currentTestCase.get();
-		if (thisTestCase != null && thisTestCase.failed)
+		if (isCancelled())
 			throw new RuntimeException("Test case has failed");
 		if (skipNextWait.get()) {
 			skipNextWait.set(false);
 			return;
 		}
+		if (thisTestCase != null)
+			thisTestCase.clockEvent();
+		ControlledScheduler s = getControllingScheduler(thisTestCase);
+		if (s != null)
+			s.leave(o);
 		try {
 			o.wait(3000);
 		} catch (InterruptedException e) {
+			if (isCancelled())
+				throw new RuntimeException("Test case has failed");
 			throw new AssertionError(e);
 		} catch (IllegalMonitorStateException e) {
 			System.out.println("Got illegal monitor state exception");
 		}
-		if (thisTestCase != null && thisTestCase.failed)
+		if (thisTestCase != null)
+			thisTestCase.clockEvent();
+		if (s != null && !s.resume(o))
+			throw new RuntimeException("Test case has failed");
+		if (isCancelled())
 			throw new RuntimeException("Test case has failed");
 		// System.out.println("waited on " + System.identityHashCode(o));
 	}
@@ -445,45 +834,186 @@ abstract public class MultithreadedTestCase {
 	 */
 	static public void awaitOn(Condition c) {
 		MultithreadedTestCase thisTestCase = currentTestCase.get();
-		if (thisTestCase != null && thisTestCase.failed)
+		if (isCancelled())
 			throw new RuntimeException("Test case has failed");
 
 		if (skipNextWait.get()) {
 			skipNextWait.set(false);
 			return;
 		}
+		if (thisTestCase != null)
+			thisTestCase.clockEvent();
+		ControlledScheduler s = getControllingScheduler(thisTestCase);
+		if (s != null)
+			s.leave(c);
 		try {
 			c.await(3, TimeUnit.SECONDS);
 		} catch (InterruptedException e) {
-			if (thisTestCase != null && thisTestCase.failed)
+			if (isCancelled())
 				throw new RuntimeException("Test case has failed");
 			throw new AssertionError(e);
 		}
-		if (thisTestCase != null && thisTestCase.failed)
+		if (thisTestCase != null)
+			thisTestCase.clockEvent();
+		if (s != null && !s.resume(c))
+			throw new RuntimeException("Test case has failed");
+		if (isCancelled())
 			throw new RuntimeException("Test case has failed");
 
 	}
 
+	/**
+	 * This method is a replacement for {@link Lock#lock()}. It suppresses the
+	 * {@link InterruptedException} that you would otherwise have to deal with
+	 * when locking interruptibly. Under controlled scheduling, acquiring the
+	 * lock is a yield point, and a thread that finds the lock taken lets the
+	 * other threads run until it is released with {@link #unlockOn(Lock)},
+	 * instead of blocking.
+	 * 
+	 * @param l
+	 *            the lock to acquire
+	 * @see #setScheduleStrategy(ScheduleStrategy)
+	 * @since 1.02
+	 */
+	static public void lockOn(Lock l) {
+		MultithreadedTestCase thisTestCase = currentTestCase.get();
+		if (isCancelled())
+			throw new RuntimeException("Test case has failed");
+		ControlledScheduler s = getControllingScheduler(thisTestCase);
+		if (s != null) {
+			if (!s.lock(l))
+				throw new RuntimeException("Test case has failed");
+			return;
+		}
+		if (thisTestCase != null)
+			thisTestCase.clockEvent();
+		try {
+			l.lockInterruptibly();
+		} catch (InterruptedException e) {
+			if (isCancelled())
+				throw new RuntimeException("Test case has failed");
+			throw new AssertionError(e);
+		}
+		if (thisTestCase != null)
+			thisTestCase.clockEvent();
+	}
+
+	/**
+	 * This method is a replacement for {@link Lock#unlock()}. Under controlled
+	 * scheduling, releasing the lock is a yield point, and the threads
+	 * waiting for it in {@link #lockOn(Lock)} can run again.
+	 * 
+	 * @param l
+	 *            the lock to release
+	 * @see #setScheduleStrategy(ScheduleStrategy)
+	 * @since 1.02
+	 */
+	static public void unlockOn(Lock l) {
+		ControlledScheduler s = getControllingScheduler(currentTestCase.get());
+		if (s != null) {
+			if (!s.unlock(l))
+				throw new RuntimeException("Test case has failed");
+			return;
+		}
+		l.unlock();
+	}
+
+	/**
+	 * @return the scheduler controlling the current thread, or null if it
+	 *         runs freely
+	 */
+	private static ControlledScheduler getControllingScheduler(MultithreadedTestCase testCase) {
+		if (testCase == null)
+			return null;
+		ControlledScheduler s = testCase.scheduler;
+		return s != null && s.isControlled() ? s : null;
+	}
+
 	// ==================
 	// -- Experimental --
 	// -- - - - - - - - -
 
 	/**
-	 * A ThreadLocal that contains a Random number generator. This is used in
-	 * {@link #mayYield()}
+	 * The seed of the current run.
 	 * 
-	 * @see #mayYield()
+	 * @see TestFramework#SEED_KEY
 	 */
-	private static ThreadLocal<Random> mtcRandomizer = new ThreadLocal<Random>() {
-		@Override
-		public Random initialValue() {
-			return new Random();
+	private volatile long runSeed;
+
+	/**
+	 * A ThreadLocal that contains the random number generator of the current
+	 * thread in the current run. This is used in {@link #mayYield()}
+	 * 
+	 * @see #getRandom()
+	 */
+	private static ThreadLocal<RunRandom> currentRandom = new ThreadLocal<RunRandom>();
+
+	/**
+	 * Set up the random numbers of a thread method's thread. To be invoked
+	 * only by the {@link TestFramework}, before the thread method runs.
+	 * 
+	 * @param index
+	 *            the position of the thread method
+	 * @return the thread's random number generator
+	 */
+	Random initRandom(int index) {
+		RunRandom random = new RunRandom(runSeed, Seeds.forThread(runSeed, index));
+		currentRandom.set(random);
+		return random;
+	}
+
+	/**
+	 * @return the seed of the current run, from which all its random choices
+	 *         are derived
+	 * @see TestFramework#SEED_KEY
+	 */
+	public long getRunSeed() {
+		return runSeed;
+	}
+
+	/**
+	 * Get the current thread's random number generator, which is seeded from
+	 * the seed of the run. A test that draws its random choices from here can
+	 * replay them by rerunning with the seed of the run.
+	 * 
+	 * <p>
+	 * Each thread method's thread gets its own generator, seeded from the
+	 * position of the method. Other threads, such as those registered with
+	 * {@link #registerThread(Thread)}, get one seeded from their name.
+	 * 
+	 * @return the random number generator of the current thread in the
+	 *         current run; it must not be shared with other threads
+	 * @since 1.02
+	 */
+	public Random getRandom() {
+		long seed = runSeed;
+		RunRandom random = currentRandom.get();
+		if (random == null || random.runSeed != seed) {
+			random = new RunRandom(seed, Seeds.forThread(seed, Thread.currentThread().getName()));
+			currentRandom.set(random);
 		}
-	};
+		return random;
+	}
+
+	/**
+	 * A random number generator that remembers the run it belongs to.
+	 */
+	private static class RunRandom extends Random {
+		private static final long serialVersionUID = 1L;
+
+		final long runSeed;
+
+		RunRandom(long runSeed, long seed) {
+			super(seed);
+			this.runSeed = runSeed;
+		}
+	}
 
 	/**
 	 * Calling this method from one of the test threads may cause the thread to
-	 * yield. Use this between statements to generate more interleavings.
+	 * yield. Use this between statements to generate more interleavings. The
+	 * choice is drawn from {@link #getRandom()}, so it is repeated when the
+	 * run is replayed with the same seed.
 	 */
 	public void mayYield() {
 		mayYield(0.5);
@@ -495,13 +1025,43 @@ abstract public class MultithreadedTestCase {
 	 * 
 	 * @param probability
 	 *            (a number between 0 and 1) the likelihood that Thread.yield()
-	 *            is called
+	 *            is called. Under controlled scheduling, every call is a yield
+	 *            point, and the {@link ScheduleStrategy} decides instead.
 	 */
 	public void mayYield(double probability) {
-		if (mtcRandomizer.get().nextDouble() < probability)
+		ControlledScheduler s = scheduler;
+		if (s != null && s.isControlled()) {
+			if (!s.yieldPoint(SchedulePoint.Operation.YIELD, null))
+				throw new RuntimeException("Test case has failed");
+			return;
+		}
+		if (getRandom().nextDouble() < probability)
 			Thread.yield();
 	}
 
+	/**
+	 * Like {@link #mayYield()}, but also tells a controlled run that the code
+	 * up to the next yield point accesses the given object. Steps of
+	 * different threads that access different objects can run in either
+	 * order with the same outcome, which lets
+	 * {@link TestFramework#explore(MultithreadedTestCase, int)} skip
+	 * schedules that only swap them. For this to hold, code after this call
+	 * must not touch other shared state before the next yield point.
+	 * 
+	 * @param shared
+	 *            the object about to be accessed
+	 * @since 1.02
+	 */
+	public void mayYieldOn(Object shared) {
+		ControlledScheduler s = scheduler;
+		if (s != null && s.isControlled()) {
+			if (!s.yieldPoint(SchedulePoint.Operation.YIELD, shared))
+				throw new RuntimeException("Test case has failed");
+			return;
+		}
+		mayYield();
+	}
+
 	// ===============================
 	// -- Tick Listeners --
 	// - - - - - - - - - - - - - - - -
@@ -509,7 +1069,7 @@ abstract public class MultithreadedTestCase {
 	/**
 	 * Maintain a queue of clock ticks that should not be skipped.
 	 */
-	SortedSet<Long> ticks = new TreeSet<Long>();
+	final TickSet ticks = new TickSet();
 
 	/**
 	 * The internal listeners list.
@@ -555,20 +1115,76 @@ abstract public class MultithreadedTestCase {
 	 * {@link MultithreadedJUnit4TestCase} uses a {@link Threaded} annotation
 	 * instead of the "threadedX" naming convention.
 	 * 
+	 * <p>
+	 * The methods are found once per test class and cached, so running a test
+	 * many times does not repeat the reflection.
+	 * 
 	 * @param test
 	 *            the test case from which to extract methods
 	 * @return a map of name, Method pairs
 	 */
 	public ThreadedMethod[] getThreadedMethods() {
-		List<ThreadedMethod> threadedMethods = new ArrayList<ThreadedMethod>();
-		
-		for (Method m : getClass().getDeclaredMethods()) {
-			if (m.getName().startsWith("thread") && m.getParameterTypes().length == 0
-					&& m.getReturnType().equals(Void.TYPE)) {
-				
-				threadedMethods.add(new ThreadedMethod(m.getName(), m));
+		return threadedMethodsByClass.get(getClass()).clone();
+	}
+
+	/**
+	 * The thread methods of each test class, found by naming convention
+	 */
+	private static final ClassValue<ThreadedMethod[]> threadedMethodsByClass = 
+			new ClassValue<ThreadedMethod[]>() {
+		@Override
+		protected ThreadedMethod[] computeValue(Class<?> type) {
+			TestCaseDescriptor descriptor = findDescriptor(type);
+			if (descriptor != null)
+				return getThreadedMethods(type, descriptor);
+
+			List<ThreadedMethod> threadedMethods = new ArrayList<ThreadedMethod>();
+			
+			for (Method m : type.getDeclaredMethods()) {
+				if (m.getName().startsWith("thread") && m.getParameterTypes().length == 0
+						&& m.getReturnType().equals(Void.TYPE)) {
+					
+					threadedMethods.add(new ThreadedMethod(m.getName(), m));
+				}
 			}
+			return threadedMethods.toArray(new ThreadedMethod[threadedMethods.size()]);
 		}
-		return threadedMethods.toArray(new ThreadedMethod[threadedMethods.size()]);
+	};
+
+	/**
+	 * Load and create the generated descriptor of a test class.
+	 * 
+	 * @return the descriptor, or null if the class does not have one
+	 * @throws IllegalStateException
+	 *             if the descriptor exists but can't be loaded or created,
+	 *             e.g. because it is stale
+	 * @see DescriptorProcessor
+	 */
+	static TestCaseDescriptor findDescriptor(Class<?> type) {
+		String name = type.getName() + TestCaseDescriptor.SUFFIX;
+		try {
+			Class<?> c = Class.forName(name, true, type.getClassLoader());
+			if (TestCaseDescriptor.class.isAssignableFrom(c))
+				return (TestCaseDescriptor) c.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			// not generated, use reflection
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Cannot create descriptor " + name, e.getCause());
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create descriptor " + name, e);
+		} catch (LinkageError e) {
+			throw new IllegalStateException("Cannot load descriptor " + name, e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the thread methods called through a descriptor
+	 */
+	static ThreadedMethod[] getThreadedMethods(Class<?> type, TestCaseDescriptor descriptor) {
+		ThreadedMethod[] threadedMethods = new ThreadedMethod[descriptor.getThreadNames().length];
+		for (int i = 0; i < threadedMethods.length; i++)
+			threadedMethods[i] = new ThreadedMethod(type, descriptor, i);
+		return threadedMethods;
 	}
 }
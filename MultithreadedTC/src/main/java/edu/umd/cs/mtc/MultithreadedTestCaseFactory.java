@@ -0,0 +1,24 @@
+package edu.umd.cs.mtc;
+
+/**
+ * Creates fresh instances of a {@link MultithreadedTestCase}, so that
+ * {@link TestFramework#runManyTimesInParallel(MultithreadedTestCaseFactory, int, int, int[])}
+ * can run several iterations of a test at the same time without them sharing
+ * any state.
+ * 
+ * @see TestFramework#runManyTimesInParallel(MultithreadedTestCaseFactory, int, int, int[])
+ * @since 1.02
+ */
+public interface MultithreadedTestCaseFactory {
+
+	/**
+	 * Create a new, independent instance of the test case. This may be called
+	 * from several threads at the same time.
+	 * 
+	 * @return a test case that has not been run yet
+	 * @throws Exception
+	 *             if the test case cannot be created; this counts as a failure
+	 *             of the iteration
+	 */
+	public MultithreadedTestCase newTestCase() throws Exception;
+}
@@ -0,0 +1,123 @@
+package edu.umd.cs.mtc;
+
+import java.io.File;
+
+/**
+ * Records the seed of a failed run. {@link TestFramework} attaches one to the
+ * failure of a run as a suppressed exception, so that the run can be replayed
+ * by passing the seed to
+ * {@link TestFramework#runOnce(MultithreadedTestCase, Integer, Integer, Long)}
+ * or setting it with {@link TestFramework#SEED_KEY}. The failure of a
+ * controlled run also carries its {@link Schedule}, and names the file it
+ * was written to, which
+ * {@link TestFramework#replay(MultithreadedTestCase, java.io.File)} repeats
+ * exactly.
+ * 
+ * @see Throwable#getSuppressed()
+ * @since 1.02
+ */
+public class RunSeedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long seed;
+
+	private final File scheduleFile;
+
+	private final transient Schedule schedule;
+
+	public RunSeedException(long seed) {
+		this(seed, null);
+	}
+
+	public RunSeedException(long seed, File scheduleFile) {
+		this(seed, scheduleFile, null);
+	}
+
+	/**
+	 * @param seed
+	 *            the seed of the failed run
+	 * @param scheduleFile
+	 *            the file the schedule of the run was written to, or null
+	 * @param schedule
+	 *            the schedule of the run, or null
+	 */
+	RunSeedException(long seed, File scheduleFile, Schedule schedule) {
+		// the stack trace would only show the framework
+		super("Run seed " + seed + ", replay with -D" + TestFramework.SEED_KEY + "=" + seed
+				+ (scheduleFile == null ? "" : " or from the schedule in " + scheduleFile), 
+				null, false, false);
+		this.seed = seed;
+		this.scheduleFile = scheduleFile;
+		this.schedule = schedule;
+	}
+
+	/**
+	 * @return the seed of the failed run
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return the file the schedule of the failed run was written to, or null
+	 *         if the run was not controlled
+	 */
+	public File getScheduleFile() {
+		return scheduleFile;
+	}
+
+	/**
+	 * @return the schedule of the failed run, or null if the run was not
+	 *         controlled
+	 */
+	public Schedule getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * Find the seed attached to the failure of a run.
+	 * 
+	 * @param failure
+	 *            an exception thrown by {@link TestFramework}
+	 * @return the seed of the failed run, or null if there is none
+	 */
+	public static Long getSeed(Throwable failure) {
+		for (Throwable suppressed : failure.getSuppressed()) {
+			if (suppressed instanceof RunSeedException)
+				return ((RunSeedException) suppressed).getSeed();
+		}
+		return null;
+	}
+
+	/**
+	 * Find the schedule file attached to the failure of a run.
+	 * 
+	 * @param failure
+	 *            an exception thrown by {@link TestFramework}
+	 * @return the file the schedule of the failed run was written to, or null
+	 *         if there is none
+	 */
+	public static File getScheduleFile(Throwable failure) {
+		for (Throwable suppressed : failure.getSuppressed()) {
+			if (suppressed instanceof RunSeedException)
+				return ((RunSeedException) suppressed).getScheduleFile();
+		}
+		return null;
+	}
+
+	/**
+	 * Find the schedule attached to the failure of a run.
+	 * 
+	 * @param failure
+	 *            an exception thrown by {@link TestFramework}
+	 * @return the schedule of the failed run, or null if there is none
+	 */
+	public static Schedule getSchedule(Throwable failure) {
+		for (Throwable suppressed : failure.getSuppressed()) {
+			if (suppressed instanceof RunSeedException)
+				return ((RunSeedException) suppressed).getSchedule();
+		}
+		return null;
+	}
+}
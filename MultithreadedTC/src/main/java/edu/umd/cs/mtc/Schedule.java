@@ -0,0 +1,392 @@
+package edu.umd.cs.mtc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The scheduling decisions of a controlled run, in the order they were
+ * taken: which thread was released at each yield point, every advance of the
+ * clock, and every lock acquired with
+ * {@link MultithreadedTestCase#lockOn(java.util.concurrent.locks.Lock)}.
+ * Together with the seed of the run, the decisions are enough to repeat the
+ * run, even if the {@link ScheduleStrategy} that took them can't repeat them.
+ *
+ * <p>
+ * When a controlled run fails, the framework writes its schedule to a file
+ * and attaches the file to the failure with a {@link RunSeedException}. The
+ * run can then be repeated with
+ * {@link TestFramework#replay(MultithreadedTestCase, File)}. Only the thread
+ * choices drive a replay; the ticks and locks are checked against it, to
+ * report where a replay stops following the schedule.
+ *
+ * <p>
+ * The file format is compact: after a header with the seed and the names of
+ * the thread methods, each decision takes one byte for the first 32
+ * threads, and one or two bytes per tick advance or lock.
+ *
+ * @see TestFramework#SCHEDULEDIR_KEY
+ * @since 1.02
+ */
+public final class Schedule {
+
+	/**
+	 * The kinds of decisions
+	 */
+	public enum Kind {
+		/** a thread was released at a yield point */
+		CHOICE,
+		/** the clock advanced */
+		TICK,
+		/** a thread acquired a lock */
+		LOCK
+	}
+
+	private static final int MAGIC = 0x4d544353; // "MTCS"
+	private static final int VERSION = 1;
+
+	/** The most thread methods a class can have */
+	private static final int MAX_THREADS = 0xffff;
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private final long seed;
+	private final String[] names;
+
+	private byte[] kinds = new byte[64];
+	private long[] values = new long[64];
+	private int[] objects = new int[64];
+	private int size;
+
+	/**
+	 * @param seed
+	 *            the seed of the run
+	 * @param names
+	 *            the names of the thread methods, in the order they are
+	 *            numbered
+	 */
+	Schedule(long seed, String[] names) {
+		this.seed = seed;
+		this.names = names.clone();
+	}
+
+	Schedule(Schedule other) {
+		this.seed = other.seed;
+		this.names = other.names;
+		this.kinds = Arrays.copyOf(other.kinds, other.size);
+		this.values = Arrays.copyOf(other.values, other.size);
+		this.objects = Arrays.copyOf(other.objects, other.size);
+		this.size = other.size;
+	}
+
+	void addChoice(int thread) {
+		add(Kind.CHOICE, thread, -1);
+	}
+
+	void addTick(long tick) {
+		add(Kind.TICK, tick, -1);
+	}
+
+	void addLock(int thread, int object) {
+		add(Kind.LOCK, thread, object);
+	}
+
+	private void add(Kind kind, long value, int object) {
+		if (size == kinds.length) {
+			int length = Math.max(64, size * 2);
+			kinds = Arrays.copyOf(kinds, length);
+			values = Arrays.copyOf(values, length);
+			objects = Arrays.copyOf(objects, length);
+		}
+		kinds[size] = (byte) kind.ordinal();
+		values[size] = value;
+		objects[size] = object;
+		size++;
+	}
+
+	/**
+	 * @return the seed of the run
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return the number of thread methods
+	 */
+	public int getThreadCount() {
+		return names.length;
+	}
+
+	/**
+	 * @return the name of a thread's thread method
+	 */
+	public String getThreadName(int thread) {
+		return names[thread];
+	}
+
+	/**
+	 * @return the number of decisions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the kind of the i-th decision
+	 */
+	public Kind getKind(int i) {
+		checkIndex(i);
+		return KINDS[kinds[i]];
+	}
+
+	/**
+	 * @return the thread released by the i-th decision, or acquiring a lock
+	 *         in it, or -1 if it is a tick
+	 */
+	public int getThread(int i) {
+		return getKind(i) == Kind.TICK ? -1 : (int) values[i];
+	}
+
+	/**
+	 * @return the tick the clock advanced to in the i-th decision, or -1 if
+	 *         it is not a tick
+	 */
+	public long getTick(int i) {
+		return getKind(i) == Kind.TICK ? values[i] : -1;
+	}
+
+	/**
+	 * @return the number of the lock acquired in the i-th decision, or -1 if
+	 *         it is not a lock
+	 * @see SchedulePoint#getObject(int)
+	 */
+	public int getObject(int i) {
+		checkIndex(i);
+		return objects[i];
+	}
+
+	/**
+	 * @return the threads released at the yield points, in order
+	 */
+	public int[] getChoices() {
+		int n = 0;
+		for (int i = 0; i < size; i++)
+			if (kinds[i] == Kind.CHOICE.ordinal())
+				n++;
+		int[] choices = new int[n];
+		n = 0;
+		for (int i = 0; i < size; i++)
+			if (kinds[i] == Kind.CHOICE.ordinal())
+				choices[n++] = (int) values[i];
+		return choices;
+	}
+
+	/**
+	 * @return the number of choices that released a different thread from
+	 *         the one before
+	 */
+	public int countContextSwitches() {
+		int switches = 0;
+		int previous = -1;
+		for (int i = 0; i < size; i++) {
+			if (kinds[i] == Kind.CHOICE.ordinal()) {
+				if (previous >= 0 && values[i] != previous)
+					switches++;
+				previous = (int) values[i];
+			}
+		}
+		return switches;
+	}
+
+	/**
+	 * @return the number of times the clock advanced
+	 */
+	public int countTicks() {
+		int ticks = 0;
+		for (int i = 0; i < size; i++)
+			if (kinds[i] == Kind.TICK.ordinal())
+				ticks++;
+		return ticks;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException(String.valueOf(i));
+	}
+
+	/**
+	 * @return true if the i-th decisions of this and another schedule are the
+	 *         same
+	 */
+	boolean sameAt(int i, Schedule other) {
+		return i < size && i < other.size && kinds[i] == other.kinds[i]
+				&& values[i] == other.values[i] && objects[i] == other.objects[i];
+	}
+
+	/**
+	 * Describe the i-th decision, or the end of the schedule if i is its size.
+	 */
+	String describe(int i) {
+		if (i >= size)
+			return "the end of the schedule";
+		switch (getKind(i)) {
+		case CHOICE: return names[(int) values[i]];
+		case TICK: return "tick " + values[i];
+		default: return names[(int) values[i]] + " locks #" + objects[i];
+		}
+	}
+
+	/**
+	 * One line per decision, except that consecutive choices of the same
+	 * thread share a line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Schedule of run ").append(seed);
+		for (int i = 0; i < size; i++) {
+			int last = i;
+			if (kinds[i] == Kind.CHOICE.ordinal()) {
+				while (last + 1 < size && kinds[last + 1] == kinds[i] && values[last + 1] == values[i])
+					last++;
+			}
+			sb.append('\n').append(i);
+			if (last > i)
+				sb.append('-').append(last);
+			sb.append(": ").append(describe(i));
+			i = last;
+		}
+		return sb.toString();
+	}
+
+	// ==============
+	// -- File I/O --
+	// - - - - - - - -
+
+	/**
+	 * Write the schedule to a file, replacing it if it exists.
+	 *
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(seed);
+			writeVarint(out, names.length);
+			for (String name : names)
+				out.writeUTF(name);
+			writeVarint(out, size);
+			long tick = 0;
+			for (int i = 0; i < size; i++) {
+				// the kind is in the two low bits of the first number
+				switch (getKind(i)) {
+				case CHOICE:
+					writeVarint(out, values[i] << 2);
+					break;
+				case TICK:
+					// the clock only moves forward
+					writeVarint(out, (values[i] - tick) << 2 | 1);
+					tick = values[i];
+					break;
+				case LOCK:
+					writeVarint(out, values[i] << 2 | 2);
+					writeVarint(out, objects[i]);
+					break;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a schedule written by {@link #write(File)}.
+	 *
+	 * @throws IOException
+	 *             if the file can't be read or is not a schedule
+	 */
+	public static Schedule read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a schedule");
+			int version = in.readUnsignedByte();
+			if (version != VERSION)
+				throw new IOException(file + " has unknown version " + version);
+			long seed = in.readLong();
+			// every name takes at least two bytes, and every decision one
+			long length = file.length();
+			long count = readVarint(in);
+			if (count < 0 || count > MAX_THREADS || count > length / 2)
+				throw new IOException(file + " is corrupt");
+			String[] names = new String[(int) count];
+			for (int i = 0; i < names.length; i++)
+				names[i] = in.readUTF();
+			Schedule schedule = new Schedule(seed, names);
+			long size = readVarint(in);
+			if (size < 0 || size > length)
+				throw new IOException(file + " is corrupt");
+			long tick = 0;
+			for (long i = 0; i < size; i++) {
+				long first = readVarint(in);
+				switch ((int) (first & 3)) {
+				case 0:
+					schedule.addChoice(checkThread(first >>> 2, names, file));
+					break;
+				case 1:
+					tick += first >>> 2;
+					schedule.addTick(tick);
+					break;
+				case 2:
+					long object = readVarint(in);
+					if (object < 0 || object > Integer.MAX_VALUE)
+						throw new IOException(file + " is corrupt");
+					schedule.addLock(checkThread(first >>> 2, names, file), (int) object);
+					break;
+				default:
+					throw new IOException(file + " is corrupt");
+				}
+			}
+			return schedule;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int checkThread(long thread, String[] names, File file) throws IOException {
+		if (thread >= names.length)
+			throw new IOException(file + " is corrupt");
+		return (int) thread;
+	}
+
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed number");
+	}
+}
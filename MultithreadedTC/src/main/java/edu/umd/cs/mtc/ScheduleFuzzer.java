@@ -0,0 +1,296 @@
+package edu.umd.cs.mtc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import edu.umd.cs.mtc.SchedulePoint.Operation;
+
+/**
+ * Fuzzes the schedules of a test case, guided by coverage. An input is a
+ * sequence of choices: a run takes the choice at each step if that thread
+ * can run, and a random thread otherwise or once the input runs out. Each
+ * run yields coverage signals:
+ * <ul>
+ * <li>every context switch, as the thread that was switched away from, how
+ * many steps it had taken, the yield point it stopped at and the thread
+ * that was switched to,</li>
+ * <li>every lock handed from one thread to another in
+ * {@link MultithreadedTestCase#lockOn(java.util.concurrent.locks.Lock)},
+ * and</li>
+ * <li>every lock acquired while holding another one.</li>
+ * </ul>
+ * A run that reaches a signal no run has reached before joins the corpus,
+ * and new inputs are made by mutating the choices of the corpus: changing,
+ * inserting or deleting choices, cutting them short, or splicing two of
+ * them. The corpus is kept in a directory as {@link Schedule} files, which
+ * later fuzzing starts from, and each can be repeated with
+ * {@link TestFramework#replay(MultithreadedTestCase, File)}.
+ *
+ * @since 1.02
+ */
+class ScheduleFuzzer {
+
+	private static final long ORDER = 1, HANDOFF = 2, NESTING = 3;
+
+	/**
+	 * Thread numbers take 16 bits of a signal, which is as many as a class
+	 * can have methods.
+	 */
+	private static final int MAX_THREADS = 1 << 16;
+
+	/**
+	 * Follows an input, and collects the coverage signals of the run.
+	 */
+	private static class FuzzStrategy implements ScheduleStrategy {
+		int[] input;
+		final Set<Long> signals = new HashSet<Long>();
+		private Random random;
+		private int[] steps;
+
+		/** The turn, thread and lock of every release, in order */
+		private final List<int[]> unlocks = new ArrayList<int[]>();
+
+		public void startRun(int threadCount, Random random) {
+			if (threadCount > MAX_THREADS)
+				throw new IllegalArgumentException("Cannot fuzz more than " + MAX_THREADS
+						+ " thread methods");
+			this.random = random;
+			steps = new int[threadCount];
+			unlocks.clear();
+			signals.clear();
+		}
+
+		public int choose(SchedulePoint point) {
+			int i = point.getStep();
+			int chosen;
+			if (i < input.length && input[i] < point.getThreadCount() && point.isEnabled(input[i]))
+				chosen = input[i];
+			else
+				chosen = point.getEnabled(random.nextInt(point.getEnabledCount()));
+
+			int previous = point.getPrevious();
+			if (previous >= 0 && previous != chosen)
+				signals.add(orderSignal(previous, steps[previous], point.getOperation(previous), chosen));
+			steps[chosen]++;
+			// a thread chosen at an unlock always releases the lock in its
+			// turn, while one chosen at a lock may find it taken
+			if (point.getOperation(chosen) == Operation.UNLOCK)
+				unlocks.add(new int[] { i, chosen, point.getObject(chosen) });
+			return chosen;
+		}
+
+		/**
+		 * Add the signals of the locks acquired in a run, which its schedule
+		 * records as they succeed.
+		 */
+		void addLockSignals(Schedule schedule) {
+			List<Set<Integer>> held = new ArrayList<Set<Integer>>();
+			for (int i = 0; i < schedule.getThreadCount(); i++)
+				held.add(new HashSet<Integer>());
+			Map<Integer, Integer> lastLocker = new HashMap<Integer, Integer>();
+			int turn = -1;
+			int next = 0;
+			for (int i = 0; i < schedule.size(); i++) {
+				if (schedule.getKind(i) == Schedule.Kind.CHOICE) {
+					turn++;
+					continue;
+				}
+				if (schedule.getKind(i) != Schedule.Kind.LOCK)
+					continue;
+				// a turn takes at most one lock or releases at most one
+				for (; next < unlocks.size() && unlocks.get(next)[0] < turn; next++)
+					held.get(unlocks.get(next)[1]).remove(unlocks.get(next)[2]);
+				int thread = schedule.getThread(i);
+				int object = schedule.getObject(i);
+				Integer last = lastLocker.put(object, thread);
+				if (last != null && last != thread)
+					signals.add(handoffSignal(object, last, thread));
+				for (int lock : held.get(thread))
+					if (lock != object)
+						signals.add(nestingSignal(lock, object));
+				held.get(thread).add(object);
+			}
+		}
+
+		/**
+		 * A context switch, where the step count aliases beyond 2^26 steps
+		 */
+		private static long orderSignal(int from, int steps, Operation operation, int to) {
+			long op = operation == null ? 15 : operation.ordinal();
+			return ORDER << 62 | (long) from << 46 | (long) to << 30 | op << 26
+					| steps & 0x3ffffffL;
+		}
+
+		private static long handoffSignal(int object, int from, int to) {
+			return HANDOFF << 62 | (object & 0x3fffffffL) << 32 | (long) from << 16 | to;
+		}
+
+		private static long nestingSignal(int outer, int inner) {
+			return NESTING << 62 | (outer & 0x7fffffffL) << 31 | inner & 0x7fffffffL;
+		}
+	}
+
+	private final MultithreadedTestCase test;
+	private final File dir;
+	private final int maxRuns;
+	private final long deadline;
+	private final long seed;
+	private final Random random;
+	private final String prefix;
+	private final String[] names;
+
+	private final FuzzStrategy strategy = new FuzzStrategy();
+	private final List<int[]> corpus = new ArrayList<int[]>();
+	private final Set<Long> coverage = new HashSet<Long>();
+	private int runs;
+	private int added;
+
+	/**
+	 * @param dir
+	 *            the directory of the corpus
+	 * @param maxRuns
+	 *            the largest number of runs
+	 * @param budget
+	 *            the time in milliseconds after which no more runs are
+	 *            started
+	 */
+	ScheduleFuzzer(MultithreadedTestCase test, File dir, int maxRuns, long budget, long seed) {
+		this.test = test;
+		this.dir = dir;
+		this.maxRuns = maxRuns;
+		this.deadline = System.currentTimeMillis() + budget;
+		this.seed = seed;
+		this.random = new Random(seed);
+		this.prefix = test.getClass().getName() + "-";
+		ThreadedMethod[] methods = test.getThreadedMethods();
+		names = new String[methods.length];
+		for (int i = 0; i < methods.length; i++)
+			names[i] = methods[i].getName();
+	}
+
+	FuzzReport fuzz() throws Throwable {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+		ScheduleStrategy original = test.getScheduleStrategy();
+		test.setScheduleStrategy(strategy);
+		try {
+			// the corpus on disk only counts towards the coverage
+			for (Schedule schedule : load()) {
+				if (!hasBudget())
+					break;
+				int[] choices = schedule.getChoices();
+				corpus.add(choices);
+				run(choices, schedule.getSeed(), false);
+			}
+			while (hasBudget()) {
+				int[] input = corpus.isEmpty() ? new int[0] : mutate();
+				run(input, Seeds.forRun(seed, runs), true);
+			}
+		} finally {
+			test.setScheduleStrategy(original);
+		}
+		return new FuzzReport(runs, corpus.size(), added, coverage.size(), seed);
+	}
+
+	private boolean hasBudget() {
+		return runs < maxRuns && System.currentTimeMillis() - deadline < 0;
+	}
+
+	/**
+	 * Run an input, and add it to the corpus if it reaches new coverage.
+	 */
+	private void run(int[] input, long runSeed, boolean keep) throws Throwable {
+		strategy.input = input;
+		TestFramework.runOnce(test, null, null, runSeed);
+		runs++;
+		Schedule schedule = test.lastSchedule;
+		strategy.addLockSignals(schedule);
+		if (!coverage.addAll(strategy.signals) || !keep)
+			return;
+		int[] choices = schedule.getChoices();
+		corpus.add(choices);
+		added++;
+		schedule.write(new File(dir, prefix + Long.toHexString(
+				Arrays.hashCode(choices) * 31L + runSeed) + ".schedule"));
+	}
+
+	/**
+	 * @return the schedules of the test case in the corpus directory
+	 */
+	private List<Schedule> load() {
+		List<Schedule> schedules = new ArrayList<Schedule>();
+		String[] files = dir.list();
+		if (files == null)
+			return schedules;
+		Arrays.sort(files);
+		for (String name : files) {
+			if (!name.startsWith(prefix) || !name.endsWith(".schedule"))
+				continue;
+			try {
+				Schedule schedule = Schedule.read(new File(dir, name));
+				boolean same = schedule.getThreadCount() == names.length;
+				for (int i = 0; same && i < names.length; i++)
+					same = schedule.getThreadName(i).equals(names[i]);
+				if (same)
+					schedules.add(schedule);
+			} catch (IOException e) {
+				// not a schedule, or from another version; leave it alone
+			}
+		}
+		return schedules;
+	}
+
+	/**
+	 * @return a mutation of an input from the corpus
+	 */
+	private int[] mutate() {
+		int[] input = corpus.get(random.nextInt(corpus.size()));
+		for (int n = 1 + random.nextInt(3); n > 0; n--) {
+			int length = input.length;
+			int at = length == 0 ? 0 : random.nextInt(length);
+			switch (length == 0 ? 1 : random.nextInt(5)) {
+			case 0: // change a choice
+				input = input.clone();
+				input[at] = random.nextInt(names.length);
+				break;
+			case 1: { // insert a few choices of a thread
+				int count = 1 + random.nextInt(8);
+				int[] longer = new int[length + count];
+				System.arraycopy(input, 0, longer, 0, at);
+				Arrays.fill(longer, at, at + count, random.nextInt(names.length));
+				System.arraycopy(input, at, longer, at + count, length - at);
+				input = longer;
+				break;
+			}
+			case 2: { // delete a few choices
+				int count = Math.min(1 + random.nextInt(8), length - at);
+				int[] shorter = new int[length - count];
+				System.arraycopy(input, 0, shorter, 0, at);
+				System.arraycopy(input, at + count, shorter, at, length - at - count);
+				input = shorter;
+				break;
+			}
+			case 3: // cut short, leaving the rest to chance
+				input = Arrays.copyOf(input, at);
+				break;
+			default: { // splice with another input
+				int[] other = corpus.get(random.nextInt(corpus.size()));
+				int from = other.length == 0 ? 0 : random.nextInt(other.length);
+				int[] spliced = Arrays.copyOf(input, at + other.length - from);
+				System.arraycopy(other, from, spliced, at, other.length - from);
+				input = spliced;
+				break;
+			}
+			}
+		}
+		return input;
+	}
+}
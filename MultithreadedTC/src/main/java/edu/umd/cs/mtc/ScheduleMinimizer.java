@@ -0,0 +1,200 @@
+package edu.umd.cs.mtc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shrinks a failing schedule by delta debugging. The schedule is cut into
+ * blocks of consecutive choices of the same thread, each of which runs the
+ * thread until it has taken a number of steps since the start of the run,
+ * and subsets of the blocks are tried. A run follows the blocks that are
+ * left, skipping a block whose thread can't run or has already taken its
+ * steps, and once the blocks run out, lets the thread that ran last keep
+ * running. Dropping a block thus removes the context switches around it,
+ * and the thread's steps are taken by its next block instead, while the
+ * other threads reach the same points as before. A candidate is kept if its run fails the same way, i.e. with
+ * an exception of the same class and the same first line of the message,
+ * and its schedule has fewer context switches and clock ticks than the best
+ * so far, or as many in fewer blocks.
+ *
+ * <p>
+ * Every run uses the seed of the failing schedule, and the test must be
+ * deterministic apart from the schedule.
+ *
+ * @see "Zeller and Hildebrandt, Simplifying and Isolating Failure-Inducing
+ *      Input, IEEE TSE 2002"
+ * @since 1.02
+ */
+class ScheduleMinimizer {
+
+	/**
+	 * Follows a list of blocks of a thread and the number of steps it should
+	 * have taken at the end of the block.
+	 */
+	private static class BlockStrategy implements ScheduleStrategy {
+		private List<int[]> blocks;
+		private int block;
+		private int[] steps;
+
+		public void startRun(int threadCount, Random random) {
+			block = 0;
+			steps = new int[threadCount];
+		}
+
+		public int choose(SchedulePoint point) {
+			int chosen = -1;
+			for (; block < blocks.size(); block++) {
+				int[] next = blocks.get(block);
+				if (steps[next[0]] < next[1] && point.isEnabled(next[0])) {
+					chosen = next[0];
+					break;
+				}
+			}
+			if (chosen < 0)
+				chosen = point.isPreemptible() ? point.getPrevious() : point.getEnabled(0);
+			steps[chosen]++;
+			return chosen;
+		}
+	}
+
+	private final MultithreadedTestCase test;
+	private final long seed;
+	private final BlockStrategy strategy = new BlockStrategy();
+
+	/** The class and first line of the message of the original failure */
+	private String failure;
+
+	/** The best schedule so far, its cost and its number of blocks */
+	private Schedule best;
+	private int bestCost;
+	private int bestBlocks;
+
+	ScheduleMinimizer(MultithreadedTestCase test, Schedule schedule) {
+		this.test = test;
+		this.seed = schedule.getSeed();
+		this.best = schedule;
+	}
+
+	Schedule minimize() throws Throwable {
+		Throwable original = replay(best);
+		if (original == null)
+			throw new IllegalArgumentException("The schedule does not fail");
+		failure = describe(original);
+		bestCost = bestBlocks = Integer.MAX_VALUE;
+		if (!accept(original))
+			throw new IllegalStateException("The schedule was not recorded", original);
+
+		ScheduleStrategy previous = test.getScheduleStrategy();
+		test.setScheduleStrategy(strategy);
+		try {
+			List<int[]> blocks = blocksOf(best);
+			int n = 2;
+			while (blocks.size() >= 2) {
+				List<int[]> reduced = reduce(blocks, n);
+				if (reduced != null) {
+					blocks = reduced;
+					n = Math.max(n - 1, 2);
+				} else if (n < blocks.size()) {
+					n = Math.min(n * 2, blocks.size());
+				} else {
+					break;
+				}
+			}
+		} finally {
+			test.setScheduleStrategy(previous);
+		}
+		return best;
+	}
+
+	/**
+	 * Try each of n chunks of the blocks, and each complement.
+	 *
+	 * @return the first candidate that is kept, or null
+	 */
+	private List<int[]> reduce(List<int[]> blocks, int n) throws Throwable {
+		int size = blocks.size();
+		for (int complement = 0; complement < 2; complement++) {
+			for (int i = 0; i < n; i++) {
+				int from = i * size / n, to = (i + 1) * size / n;
+				List<int[]> candidate = new ArrayList<int[]>();
+				for (int j = 0; j < size; j++) {
+					if ((j >= from && j < to) != (complement == 1))
+						candidate.add(blocks.get(j));
+				}
+				if (candidate.isEmpty() || candidate.size() == size)
+					continue;
+				if (accept(run(candidate)))
+					return blocksOf(best);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Keep the schedule of a failed run if it failed the same way, and is
+	 * smaller than the best so far.
+	 */
+	private boolean accept(Throwable e) {
+		if (e == null || !failure.equals(describe(e)))
+			return false;
+		Schedule schedule = RunSeedException.getSchedule(e);
+		if (schedule == null)
+			return false;
+		int cost = schedule.countContextSwitches() + schedule.countTicks();
+		int blocks = blocksOf(schedule).size();
+		if (cost > bestCost || cost == bestCost && blocks >= bestBlocks)
+			return false;
+		best = schedule;
+		bestCost = cost;
+		bestBlocks = blocks;
+		return true;
+	}
+
+	private Throwable replay(Schedule schedule) {
+		try {
+			TestFramework.runWithoutScheduleFile(test, seed, schedule);
+			return null;
+		} catch (Throwable e) {
+			return e;
+		}
+	}
+
+	private Throwable run(List<int[]> blocks) {
+		strategy.blocks = blocks;
+		try {
+			TestFramework.runWithoutScheduleFile(test, seed, null);
+			return null;
+		} catch (Throwable e) {
+			return e;
+		}
+	}
+
+	/**
+	 * @return the choices of a schedule as blocks of a thread and the number
+	 *         of steps it has taken at the end of the block
+	 */
+	private static List<int[]> blocksOf(Schedule schedule) {
+		List<int[]> blocks = new ArrayList<int[]>();
+		int[] steps = new int[schedule.getThreadCount()];
+		int[] block = null;
+		for (int thread : schedule.getChoices()) {
+			steps[thread]++;
+			if (block != null && block[0] == thread) {
+				block[1] = steps[thread];
+			} else {
+				block = new int[] { thread, steps[thread] };
+				blocks.add(block);
+			}
+		}
+		return blocks;
+	}
+
+	private static String describe(Throwable e) {
+		String message = String.valueOf(e.getMessage());
+		int newline = message.indexOf('\n');
+		if (newline >= 0)
+			message = message.substring(0, newline);
+		return e.getClass().getName() + ": " + message;
+	}
+}
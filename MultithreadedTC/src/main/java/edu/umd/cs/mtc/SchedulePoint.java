@@ -0,0 +1,144 @@
+package edu.umd.cs.mtc;
+
+import java.util.Arrays;
+
+/**
+ * A point in a controlled run at which the {@link ScheduleStrategy} picks
+ * the next thread to run. Threads are numbered from 0 in the order of their
+ * thread methods. Each thread is stopped at a yield point, and the operation
+ * and object of that yield point tell what it will do when it runs next:
+ * two threads about to operate on different objects can be run in either
+ * order with the same outcome, as long as they don't share state that the
+ * framework does not see.
+ * 
+ * <p>
+ * The framework reuses the same instance for every decision in a run, so a
+ * strategy must not keep it beyond {@link ScheduleStrategy#choose(SchedulePoint)}.
+ * 
+ * @since 1.02
+ */
+public final class SchedulePoint {
+
+	/**
+	 * The kinds of yield points
+	 */
+	public enum Operation {
+		/** about to run its thread method */
+		START,
+		/** in {@link MultithreadedTestCase#mayYield()} or
+		 *  {@link MultithreadedTestCase#mayYieldOn(Object)} */
+		YIELD,
+		/** in {@link MultithreadedTestCase#waitForTick(long)} */
+		TICK,
+		/** about to acquire a lock in {@link MultithreadedTestCase#lockOn(java.util.concurrent.locks.Lock)} */
+		LOCK,
+		/** about to release a lock in {@link MultithreadedTestCase#unlockOn(java.util.concurrent.locks.Lock)} */
+		UNLOCK,
+		/** back from waiting in {@link MultithreadedTestCase#waitOn(Object)} or
+		 *  {@link MultithreadedTestCase#awaitOn(java.util.concurrent.locks.Condition)},
+		 *  or from blocking outside the framework */
+		RESUME
+	}
+
+	private final String[] names;
+
+	int step;
+	int previous = -1;
+	long tick;
+	final int[] enabled;
+	int enabledCount;
+	final Operation[] operations;
+	final int[] objects;
+
+	SchedulePoint(String[] names) {
+		this.names = names;
+		this.enabled = new int[names.length];
+		this.operations = new Operation[names.length];
+		this.objects = new int[names.length];
+		Arrays.fill(objects, -1);
+	}
+
+	/**
+	 * @return the number of decisions taken before this one in the run
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the number of thread methods
+	 */
+	public int getThreadCount() {
+		return names.length;
+	}
+
+	/**
+	 * @return the name of a thread's thread method
+	 */
+	public String getThreadName(int thread) {
+		return names[thread];
+	}
+
+	/**
+	 * @return the thread that ran last, or -1 if none has run yet
+	 */
+	public int getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * @return true if choosing a thread other than the previous one would
+	 *         preempt it, i.e. it could have kept running
+	 */
+	public boolean isPreemptible() {
+		return previous >= 0 && isEnabled(previous);
+	}
+
+	/**
+	 * @return the current clock tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return the number of threads that can run
+	 */
+	public int getEnabledCount() {
+		return enabledCount;
+	}
+
+	/**
+	 * @return the i-th thread that can run, in ascending order
+	 */
+	public int getEnabled(int i) {
+		if (i >= enabledCount)
+			throw new IndexOutOfBoundsException(String.valueOf(i));
+		return enabled[i];
+	}
+
+	/**
+	 * @return true if the given thread can run
+	 */
+	public boolean isEnabled(int thread) {
+		return Arrays.binarySearch(enabled, 0, enabledCount, thread) >= 0;
+	}
+
+	/**
+	 * @return the yield point a thread is stopped at, or null if it has
+	 *         finished or is running outside the framework's control
+	 */
+	public Operation getOperation(int thread) {
+		return operations[thread];
+	}
+
+	/**
+	 * @return a number identifying the lock or object of a thread's yield
+	 *         point, or -1 if there is none. Objects are numbered in the
+	 *         order they are first seen in the run, so the numbers of a
+	 *         replayed run are the same.
+	 */
+	public int getObject(int thread) {
+		return objects[thread];
+	}
+}
@@ -0,0 +1,136 @@
+package edu.umd.cs.mtc;
+
+import java.util.Random;
+
+/**
+ * Ready-made {@link ScheduleStrategy} implementations. Each has a public
+ * no-argument constructor, so they can be named with
+ * {@link TestFramework#SCHEDULER_KEY}.
+ * 
+ * @see ScheduleStrategy
+ * @since 1.02
+ */
+public class ScheduleStrategies {
+
+	private ScheduleStrategies() {
+		// not instantiable
+	}
+
+	/**
+	 * Picks one of the enabled threads uniformly at random at every yield
+	 * point.
+	 */
+	public static class RandomWalk implements ScheduleStrategy {
+		private Random random;
+
+		public void startRun(int threadCount, Random random) {
+			this.random = random;
+		}
+
+		public int choose(SchedulePoint point) {
+			return point.getEnabled(random.nextInt(point.getEnabledCount()));
+		}
+	}
+
+	/**
+	 * Probabilistic concurrency testing. Each run gives the threads distinct
+	 * random priorities and always runs the enabled thread with the highest
+	 * priority. At <code>depth - 1</code> random steps of the run, the
+	 * priority of the thread about to run drops below all the initial
+	 * priorities, so another thread takes over.
+	 * 
+	 * <p>
+	 * A bug of depth d is one that shows once d particular ordering
+	 * constraints between the threads' steps are met; most bugs have depth 1
+	 * or 2. With n threads and k steps per run, each run finds a bug of
+	 * depth at most <code>depth</code> with a probability of at least
+	 * 1/(n k<sup>depth-1</sup>), whereas a random walk may need a number of
+	 * runs exponential in k. The change points are drawn from the first
+	 * <code>steps</code> steps, so <code>steps</code> should be about the
+	 * number of yield points in a run; change points past the end of a run
+	 * are lost, which makes the run shallower.
+	 * 
+	 * @see "Burckhardt et al., A Randomized Scheduler with Probabilistic
+	 *      Guarantees of Finding Bugs, ASPLOS 2010"
+	 */
+	public static class PCT implements ScheduleStrategy {
+		private final int depth;
+		private final int steps;
+		private int[] priorities;
+		private int[] changePoints;
+
+		/**
+		 * Find bugs of depth 3 in runs of about 100 steps.
+		 */
+		public PCT() {
+			this(3);
+		}
+
+		/**
+		 * @param depth
+		 *            the depth of the bugs to find, at least 1
+		 */
+		public PCT(int depth) {
+			this(depth, 100);
+		}
+
+		/**
+		 * @param depth
+		 *            the depth of the bugs to find, at least 1
+		 * @param steps
+		 *            the expected number of steps in a run, at least 1
+		 */
+		public PCT(int depth, int steps) {
+			if (depth < 1)
+				throw new IllegalArgumentException("Depth must be at least 1: " + depth);
+			if (steps < 1)
+				throw new IllegalArgumentException("Steps must be at least 1: " + steps);
+			this.depth = depth;
+			this.steps = steps;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		public int getSteps() {
+			return steps;
+		}
+
+		public void startRun(int threadCount, Random random) {
+			// a random permutation of depth .. depth + threadCount - 1, so
+			// that the lowered priorities 1 .. depth - 1 are below them all
+			priorities = new int[threadCount];
+			for (int i = 0; i < threadCount; i++) {
+				int j = random.nextInt(i + 1);
+				priorities[i] = priorities[j];
+				priorities[j] = depth + i;
+			}
+			changePoints = new int[depth - 1];
+			for (int i = 0; i < changePoints.length; i++)
+				changePoints[i] = 1 + random.nextInt(steps);
+		}
+
+		public int choose(SchedulePoint point) {
+			int chosen = highest(point);
+			for (int i = 0; i < changePoints.length; i++) {
+				if (changePoints[i] == point.getStep()) {
+					// the i-th change point lowers the priority to depth - 1 - i
+					priorities[chosen] = depth - 1 - i;
+					chosen = highest(point);
+				}
+			}
+			return chosen;
+		}
+
+		private int highest(SchedulePoint point) {
+			int best = point.getEnabled(0);
+			for (int i = 1; i < point.getEnabledCount(); i++) {
+				int thread = point.getEnabled(i);
+				if (priorities[thread] > priorities[best])
+					best = thread;
+			}
+			return best;
+		}
+	}
+}
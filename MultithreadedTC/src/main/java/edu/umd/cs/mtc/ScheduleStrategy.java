@@ -0,0 +1,51 @@
+package edu.umd.cs.mtc;
+
+import java.util.Random;
+
+/**
+ * Decides which thread runs next when a {@link MultithreadedTestCase} is run
+ * under controlled scheduling. In this mode only one thread method's thread
+ * runs at a time, and it only hands over control at the framework's yield
+ * points: the start of the thread method, {@link MultithreadedTestCase#waitForTick(long)},
+ * {@link MultithreadedTestCase#mayYield()},
+ * {@link MultithreadedTestCase#waitOn(Object)},
+ * {@link MultithreadedTestCase#awaitOn(java.util.concurrent.locks.Condition)},
+ * {@link MultithreadedTestCase#lockOn(java.util.concurrent.locks.Lock)} and
+ * {@link MultithreadedTestCase#unlockOn(java.util.concurrent.locks.Lock)}.
+ * At each of these, the strategy picks the next thread from those that can
+ * run, so the strategy and the seed of the run determine the whole
+ * interleaving.
+ * 
+ * <p>
+ * A strategy is used for every run of the test case it is set on, one run
+ * at a time, so it can learn from earlier runs. It is never called by more
+ * than one thread at a time.
+ * 
+ * @see MultithreadedTestCase#setScheduleStrategy(ScheduleStrategy)
+ * @see ScheduleStrategies
+ * @since 1.02
+ */
+public interface ScheduleStrategy {
+
+	/**
+	 * Called before each run.
+	 * 
+	 * @param threadCount
+	 *            the number of thread methods, which are numbered from 0 in
+	 *            the order of {@link MultithreadedTestCase#getThreadedMethods()}
+	 * @param random
+	 *            random numbers seeded from the seed of the run, which the
+	 *            strategy should draw all its random choices from
+	 */
+	public void startRun(int threadCount, Random random);
+
+	/**
+	 * Pick the thread to run next.
+	 * 
+	 * @param point
+	 *            the threads that can run, and what each thread is about to
+	 *            do; only valid during the call
+	 * @return the number of one of the enabled threads
+	 */
+	public int choose(SchedulePoint point);
+}
@@ -0,0 +1,78 @@
+package edu.umd.cs.mtc;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Derives the seeds of the runs and threads of a test from a single seed.
+ * Each run of a test case has its own seed, from which each thread method's
+ * thread gets a {@link java.util.Random} of its own. Since a thread's random
+ * numbers only depend on the run seed and the position of its thread method,
+ * and not on the order the threads happen to run in, every randomized choice
+ * in a run can be repeated by running it again with the same seed.
+ *
+ * <p>
+ * The seeds of the runs of {@link TestFramework#runManyTimes} only depend on
+ * the first run's seed and their position, so the seed reported for a
+ * failing run is all it takes to replay that run on its own.
+ *
+ * @see MultithreadedTestCase#getRandom()
+ * @see TestFramework#SEED_KEY
+ * @since 1.02
+ */
+final class Seeds {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private Seeds() {
+	}
+
+	/**
+	 * @return the seed given, else the one set with
+	 *         {@link TestFramework#SEED_KEY}, else a random one
+	 */
+	static long choose(Long seed) {
+		if (seed == null)
+			seed = Long.getLong(TestFramework.SEED_KEY);
+		return seed != null ? seed : ThreadLocalRandom.current().nextLong();
+	}
+
+	/**
+	 * @return the seed of the run at the given position, the first run's
+	 *         being the given seed itself
+	 */
+	static long forRun(long seed, int run) {
+		return run == 0 ? seed : mix(seed + run * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @return the seed for the random numbers of a thread in a run
+	 */
+	static long forThread(long runSeed, int index) {
+		return mix(mix(runSeed) + (index + 1) * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @return the seed for the random numbers of the run's
+	 *         {@link ScheduleStrategy}
+	 */
+	static long forScheduler(long runSeed) {
+		return forThread(runSeed, -1);
+	}
+
+	/**
+	 * @return the seed for the random numbers of a thread that does not run a
+	 *         thread method, which can only be told apart by its name
+	 */
+	static long forThread(long runSeed, String name) {
+		return mix(~mix(runSeed) + name.hashCode() * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * The finalizer of SplitMix64, which spreads nearby seeds far apart.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,134 @@
+package edu.umd.cs.mtc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds back the threads of a run until all of them have arrived, so that the
+ * thread methods start together. By default the threads block on a
+ * {@link CountDownLatch}, and the scheduler wakes them one after another, which
+ * spreads their start over tens of microseconds. In spinning mode, the threads
+ * instead busy-wait on a volatile flag, which the last thread to arrive sets,
+ * and all of them see it within a fraction of a microsecond. This makes tight
+ * races between the starts of the thread methods much more likely.
+ *
+ * <p>
+ * Spinning threads call <code>Thread.onSpinWait()</code> if the JVM has it.
+ * After spinning for a while without being released, e.g. because there are
+ * more threads than processors, they yield between checks.
+ *
+ * <p>
+ * Either way, each thread can wait a random number of nanoseconds after
+ * being released, up to a given jitter, to vary the order of the starts from
+ * run to run. The delays are drawn from the thread's seeded random numbers,
+ * so they are the same when a run is replayed.
+ *
+ * @see MultithreadedTestCase#setSpinStart(boolean)
+ * @see MultithreadedTestCase#setStartJitter(long)
+ * @since 1.02
+ */
+class StartBarrier {
+
+	/**
+	 * The number of checks before a spinning thread starts to yield
+	 */
+	private static final int SPIN_LIMIT = 1 << 14;
+
+	/**
+	 * <code>Thread.onSpinWait()</code>, or null if the JVM does not have it
+	 */
+	private static final MethodHandle onSpinWait;
+
+	static {
+		MethodHandle handle = null;
+		try {
+			handle = MethodHandles.publicLookup().findStatic(Thread.class, "onSpinWait",
+					MethodType.methodType(void.class));
+		} catch (Throwable e) {
+			// JVM is older than Java 9
+		}
+		onSpinWait = handle;
+	}
+
+	private final CountDownLatch latch;
+
+	private final AtomicInteger waiting;
+
+	private volatile boolean released;
+
+	private final long jitter;
+
+	/**
+	 * @param parties
+	 *            the number of threads to wait for
+	 * @param spin
+	 *            true to busy-wait instead of blocking
+	 * @param jitter
+	 *            the longest random delay after the release, in nanoseconds,
+	 *            or 0 for none
+	 */
+	StartBarrier(int parties, boolean spin, long jitter) {
+		this.latch = spin ? null : new CountDownLatch(parties);
+		this.waiting = spin ? new AtomicInteger(parties) : null;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Arrive at the barrier and wait until all the other threads have.
+	 *
+	 * @param random
+	 *            the thread's random numbers, for the jitter
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	void await(Random random) throws InterruptedException {
+		if (latch != null) {
+			latch.countDown();
+			latch.await();
+		} else if (waiting.decrementAndGet() == 0) {
+			released = true;
+		} else {
+			for (int spins = 0; !released; spins++) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				if (spins < SPIN_LIMIT)
+					spinWait();
+				else
+					Thread.yield();
+			}
+		}
+
+		if (jitter > 0) {
+			// busy-wait, since sleeping has nowhere near this resolution
+			long end = System.nanoTime() + nextLong(random, jitter + 1);
+			while (System.nanoTime() - end < 0)
+				spinWait();
+		}
+	}
+
+	/**
+	 * @return a random number from 0 (inclusive) to bound (exclusive)
+	 */
+	private static long nextLong(Random random, long bound) {
+		long bits, value;
+		do {
+			bits = random.nextLong() >>> 1;
+			value = bits % bound;
+		} while (bits - value + (bound - 1) < 0);
+		return value;
+	}
+
+	private static void spinWait() {
+		if (onSpinWait != null) {
+			try {
+				onSpinWait.invokeExact();
+			} catch (Throwable e) {
+				throw new AssertionError(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package edu.umd.cs.mtc;
+
+/**
+ * The thread methods and {@link AfterThreads @AfterThreads} hooks of a test
+ * class, with direct calls to each of them. Descriptors are generated at
+ * compile time by {@link DescriptorProcessor}, which names the descriptor of
+ * a class <code>Foo</code> <code>Foo$$MtcDescriptor</code>. When a test
+ * class has a descriptor, {@link MultithreadedTestCase#getThreadedMethods()}
+ * and {@link MultithreadedJUnit4TestCase#onFinish()} use it instead of
+ * finding and calling the methods with reflection.
+ * 
+ * <p>
+ * Descriptors are only used for the exact class they were generated for; a
+ * subclass without its own descriptor falls back to reflection.
+ * 
+ * @see DescriptorProcessor
+ * @since 1.02
+ */
+public interface TestCaseDescriptor {
+
+	/**
+	 * The suffix appended to the binary name of a test class to get the name
+	 * of its descriptor
+	 */
+	public static final String SUFFIX = "$$MtcDescriptor";
+
+	/**
+	 * @return the name of the thread that runs each thread method
+	 */
+	public String[] getThreadNames();
+
+	/**
+	 * @return the name of each thread method, in the same order as
+	 *         {@link #getThreadNames()}
+	 */
+	public String[] getMethodNames();
+
+	/**
+	 * Call a thread method.
+	 * 
+	 * @param test
+	 *            the test case to call the method on
+	 * @param index
+	 *            the index of the method in {@link #getMethodNames()}
+	 * @throws Throwable
+	 *             whatever the method throws
+	 */
+	public void runThread(MultithreadedTestCase test, int index) throws Throwable;
+
+	/**
+	 * Call every {@link AfterThreads @AfterThreads} method, children's before
+	 * their parents'. Does nothing for a test that does not extend
+	 * {@link MultithreadedJUnit4TestCase}.
+	 * 
+	 * @param test
+	 *            the test case to call the methods on
+	 * @throws Throwable
+	 *             whatever a method throws
+	 */
+	public void runAfterThreads(MultithreadedTestCase test) throws Throwable;
+}
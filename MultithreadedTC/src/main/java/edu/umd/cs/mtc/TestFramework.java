@@ -1,19 +1,24 @@
 package edu.umd.cs.mtc;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -25,7 +30,9 @@ import junit.framework.TestSuite;
  * to run a MultithreadedTestCase once. The method
  * {@link TestFramework#runManyTimes(MultithreadedTestCase, int)} can be used to
  * run a MultithreadedTestCase multiple times (to see if different interleavings
- * produce different behaviors).
+ * produce different behaviors), and
+ * {@link #runManyTimesInParallel(MultithreadedTestCaseFactory, int)} can be used
+ * to run several of those iterations at the same time.
  * 
  * <p>
  * Each test case starts by running the initialize method, followed by all the thread 
@@ -60,6 +67,9 @@ import junit.framework.TestSuite;
  * seconds without becoming blocked or waiting for a metronome tick. 
  * Set command line parameter -Dtunit.clockPeriod=<em>p</em> to cause the clock thread
  * to check the status of all the threads every <em>p</em> milliseconds.
+ * Set command line parameter -Dtunit.eventClock=true to make the clock thread
+ * wake up as soon as a thread blocks or unblocks in one of the framework's wait
+ * methods, so that the clock advances without waiting for the next period.
  * 
  * @see MultithreadedTestCase
  * @see #runOnce(MultithreadedTestCase)
@@ -92,6 +102,89 @@ public class TestFramework {
 	 * runnable threads. 
 	 */
 	public static final String RUNLIMIT_KEY = "tunit.runLimit";
+
+	/**
+	 * Command line key for indicating that the clock thread should be woken
+	 * up by blocking and unblocking events in the test threads, and only fall
+	 * back on polling every clock period.
+	 * 
+	 * @see MultithreadedTestCase#setEventDrivenClock(boolean)
+	 */
+	public static final String EVENTCLOCK_KEY = "tunit.eventClock";
+
+	/**
+	 * Command line key for indicating that test runs repeated by
+	 * {@link #runManyTimes(MultithreadedTestCase, int)} should reuse the same
+	 * threads instead of creating new ones for every run.
+	 * 
+	 * @see MultithreadedTestCase#setPooledThreads(boolean)
+	 */
+	public static final String POOLEDTHREADS_KEY = "tunit.pooledThreads";
+
+	/**
+	 * Command line key for indicating that thread methods should run on
+	 * virtual threads, if the JVM supports them.
+	 * 
+	 * @see MultithreadedTestCase#setVirtualThreads(boolean)
+	 * @see VirtualThreads
+	 */
+	public static final String VIRTUALTHREADS_KEY = "tunit.virtualThreads";
+
+	/**
+	 * Command line key for the class name of a {@link TestThreadFactory} that
+	 * creates the threads running thread methods. The class needs a public
+	 * no-argument constructor.
+	 * 
+	 * @see MultithreadedTestCase#setThreadFactory(TestThreadFactory)
+	 */
+	public static final String THREADFACTORY_KEY = "tunit.threadFactory";
+
+	/**
+	 * Command line key for indicating that the threads of a run should
+	 * busy-wait for each other before running their thread methods, so that
+	 * the methods start as close together as possible.
+	 * 
+	 * @see MultithreadedTestCase#setSpinStart(boolean)
+	 */
+	public static final String SPINSTART_KEY = "tunit.spinStart";
+
+	/**
+	 * Command line key for the longest random delay, in nanoseconds, that each
+	 * thread waits after all the threads of a run have started.
+	 * 
+	 * @see MultithreadedTestCase#setStartJitter(long)
+	 */
+	public static final String STARTJITTER_KEY = "tunit.startJitter";
+
+	/**
+	 * Command line key for the seed of the random choices in a run, such as
+	 * those of {@link MultithreadedTestCase#mayYield()} and the start jitter.
+	 * When running a test case many times, this is the seed of the first run,
+	 * from which the seeds of the other runs are derived. Without it, every
+	 * test gets a random seed. The seed of a failed run is attached to its
+	 * failure as a {@link RunSeedException}.
+	 * 
+	 * @see MultithreadedTestCase#getRandom()
+	 */
+	public static final String SEED_KEY = "tunit.seed";
+
+	/**
+	 * Command line key for the class name of a {@link ScheduleStrategy} that
+	 * runs the thread methods one at a time, handing over control only at the
+	 * framework's yield points. The class needs a public no-argument
+	 * constructor.
+	 * 
+	 * @see MultithreadedTestCase#setScheduleStrategy(ScheduleStrategy)
+	 */
+	public static final String SCHEDULER_KEY = "tunit.scheduler";
+
+	/**
+	 * Command line key for the directory that the {@link Schedule} of a failed
+	 * controlled run is written to. The default is the temporary directory.
+	 * 
+	 * @see #replay(MultithreadedTestCase, File)
+	 */
+	public static final String SCHEDULEDIR_KEY = "tunit.scheduleDir";
 	
 	/**
 	 * The default clock period in milliseconds 
@@ -102,6 +195,13 @@ public class TestFramework {
 	 * The default run limit in seconds
 	 */
 	public static final Integer DEFAULT_RUNLIMIT = 5;
+
+	/**
+	 * How long, in milliseconds, a failed run waits in total for its threads
+	 * to stop after they have been interrupted. Threads still running after
+	 * that, e.g. because they are deadlocked, are abandoned.
+	 */
+	static final long CANCEL_TIMEOUT = 1000;
 		
 	/**
 	 * Change/set the system property for the clock period
@@ -124,6 +224,117 @@ public class TestFramework {
 		if (v != null)
 			System.setProperty(RUNLIMIT_KEY, v.toString());
 	}	
+
+	/**
+	 * Change/set the system property for the event-driven clock. This only
+	 * affects test cases created after the call.
+	 * 
+	 * @param v
+	 * 			true to make the clock thread react to blocking events
+	 */
+	public static void setGlobalEventClock(Boolean v) {
+		if (v != null)
+			System.setProperty(EVENTCLOCK_KEY, v.toString());
+	}
+
+	/**
+	 * Change/set the system property for pooled threads. This only affects
+	 * test cases created after the call.
+	 * 
+	 * @param v
+	 * 			true to reuse threads when running a test case many times
+	 */
+	public static void setGlobalPooledThreads(Boolean v) {
+		if (v != null)
+			System.setProperty(POOLEDTHREADS_KEY, v.toString());
+	}
+
+	/**
+	 * Change/set the system property for virtual threads. This only affects
+	 * test cases created after the call.
+	 * 
+	 * @param v
+	 * 			true to run thread methods on virtual threads
+	 */
+	public static void setGlobalVirtualThreads(Boolean v) {
+		if (v != null)
+			System.setProperty(VIRTUALTHREADS_KEY, v.toString());
+	}
+
+	/**
+	 * Change/set the system property for the thread factory. This only affects
+	 * test cases created after the call.
+	 * 
+	 * @param factory
+	 * 			the class of the factory creating the threads that run thread
+	 * 			methods, which needs a public no-argument constructor
+	 */
+	public static void setGlobalThreadFactory(Class<? extends TestThreadFactory> factory) {
+		if (factory != null)
+			System.setProperty(THREADFACTORY_KEY, factory.getName());
+	}
+
+	/**
+	 * Change/set the system property for spinning starts. This only affects
+	 * test cases created after the call.
+	 * 
+	 * @param v
+	 * 			true to have the threads of a run busy-wait for each other
+	 */
+	public static void setGlobalSpinStart(Boolean v) {
+		if (v != null)
+			System.setProperty(SPINSTART_KEY, v.toString());
+	}
+
+	/**
+	 * Change/set the system property for start jitter. This only affects
+	 * test cases created after the call.
+	 * 
+	 * @param v
+	 * 			the longest random delay in nanoseconds after a run's threads
+	 * 			have started
+	 */
+	public static void setGlobalStartJitter(Long v) {
+		if (v != null)
+			System.setProperty(STARTJITTER_KEY, v.toString());
+	}
+
+	/**
+	 * Change/set the system property for the seed of the random choices in
+	 * a run.
+	 * 
+	 * @param v
+	 * 			the seed of the first run
+	 */
+	public static void setGlobalSeed(Long v) {
+		if (v != null)
+			System.setProperty(SEED_KEY, v.toString());
+	}
+
+	/**
+	 * Change/set the system property for controlled scheduling. This only
+	 * affects test cases created after the call.
+	 * 
+	 * @param strategy
+	 * 			the class of the strategy picking the thread to run at each
+	 * 			yield point, which needs a public no-argument constructor
+	 */
+	public static void setGlobalScheduleStrategy(Class<? extends ScheduleStrategy> strategy) {
+		if (strategy != null)
+			System.setProperty(SCHEDULER_KEY, strategy.getName());
+	}
+
+	/**
+	 * Change/set the system property for the directory that the schedules of
+	 * failed controlled runs are written to.
+	 * 
+	 * @param dir
+	 * 			the directory, which is created if it does not exist
+	 */
+	public static void setGlobalScheduleDirectory(File dir) {
+		if (dir != null)
+			System.setProperty(SCHEDULEDIR_KEY, dir.getPath());
+	}
 	
 	
 	/**
@@ -152,20 +363,27 @@ public class TestFramework {
 		
 		System.out.println("Testing " + test.getClass());
 		
-		for (int i = 0; i < count; i++) {
-			try {
-				runOnce(test);
-			} catch (Throwable e) {
-				failed = true;
-				failures++;
-				if (t == null)
-					t = e;
-			}
-			if (i%10 == 9) {
-				if (failed) { System.out.print("f"); failed=false; }
-				else System.out.print(".");
-				if (i%100 == 99) System.out.println(" " + (i+1));
+		long seed = Seeds.choose(null);
+		WorkerPool pool = newPool(test);
+		try {
+			for (int i = 0; i < count; i++) {
+				try {
+					runOnce(test, null, null, pool, Seeds.forRun(seed, i));
+				} catch (Throwable e) {
+					failed = true;
+					failures++;
+					if (t == null)
+						t = e;
+				}
+				if (i%10 == 9) {
+					if (failed) { System.out.print("f"); failed=false; }
+					else System.out.print(".");
+					if (i%100 == 99) System.out.println(" " + (i+1));
+				}
 			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
 		}
 		if (failureCount != null && failureCount.length > 0) 
 			failureCount[0] = failures;
@@ -173,6 +391,120 @@ public class TestFramework {
 			throw t;
 	}
 
+
+	/**
+	 * Run a multithreaded test case multiple times, running
+	 * <code>parallelism</code> iterations at the same time, using the default or
+	 * global settings for clock period and run limit. Each iteration runs on a
+	 * fresh test case created by <code>factory</code>, so iterations do not
+	 * share any state unless the factory makes them. This is useful for test
+	 * cases whose threads spend most of their time blocked or waiting for ticks,
+	 * which would otherwise leave most processors idle.
+	 * 
+	 * <p>
+	 * Failures are counted the same way as by
+	 * {@link #runInstrumentedManyTimes(MultithreadedTestCase, int, int[])}: if
+	 * the array <code>failureCount</code> is initialized to be of at least size
+	 * 1, it returns the number of failed iterations in
+	 * <code>failureCount[0]</code>, and if failures do occur, the failure of the
+	 * earliest failing iteration is thrown after all iterations have run.
+	 * 
+	 * @param factory
+	 *            creates a new test case for each iteration
+	 * @param count
+	 *            the number of times to run the test case
+	 * @param parallelism
+	 *            the number of iterations to run at the same time
+	 * @param failureCount
+	 * 			  if this array is initialzed to at least size 1, the number of failures
+	 * 			  is returned in <code>failureCount[0]</code>
+	 * @throws Throwable
+	 * 			  if there is at least one failure -- the first failure is thrown
+	 */
+	public static void runManyTimesInParallel(final MultithreadedTestCaseFactory factory,
+			final int count, int parallelism, int[] failureCount) throws Throwable {
+		final AtomicInteger nextIteration = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final long seed = Seeds.choose(null);
+		
+		// the earliest failing iteration and its failure
+		final AtomicReference<IterationFailure> firstFailure = new AtomicReference<IterationFailure>();
+		
+		Thread[] runners = new Thread[Math.max(1, Math.min(parallelism, count))];
+		for (int i = 0; i < runners.length; i++) {
+			runners[i] = new Thread("MTC-Runner-" + i) {
+				public void run() {
+					WorkerPool pool = null;
+					try {
+						int iteration;
+						while ((iteration = nextIteration.getAndIncrement()) < count) {
+							// the clock thread may have interrupted us in a failed run
+							Thread.interrupted();
+							try {
+								MultithreadedTestCase test = factory.newTestCase();
+								if (pool == null)
+									pool = newPool(test);
+								runOnce(test, null, null, pool, Seeds.forRun(seed, iteration));
+							} catch (Throwable e) {
+								failures.incrementAndGet();
+								IterationFailure failure = new IterationFailure(iteration, e);
+								IterationFailure first;
+								do {
+									first = firstFailure.get();
+								} while ((first == null || iteration < first.iteration)
+										&& !firstFailure.compareAndSet(first, failure));
+							}
+						}
+					} finally {
+						if (pool != null)
+							pool.shutdown();
+					}
+				}
+			};
+			runners[i].start();
+		}
+		for (Thread runner : runners)
+			runner.join();
+		
+		if (failureCount != null && failureCount.length > 0) 
+			failureCount[0] = failures.get();
+		IterationFailure first = firstFailure.get();
+		if (first != null)
+			throw first.failure;
+	}
+
+	/**
+	 * A failed iteration of
+	 * {@link TestFramework#runManyTimesInParallel(MultithreadedTestCaseFactory, int, int, int[])}
+	 */
+	private static final class IterationFailure {
+		final int iteration;
+		final Throwable failure;
+
+		IterationFailure(int iteration, Throwable failure) {
+			this.iteration = iteration;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Run a multithreaded test case multiple times, running one iteration per
+	 * available processor at the same time.
+	 * 
+	 * @see #runManyTimesInParallel(MultithreadedTestCaseFactory, int, int, int[])
+	 * 
+	 * @param factory
+	 *            creates a new test case for each iteration
+	 * @param count
+	 *            the number of times to run the test case
+	 * @throws Throwable
+	 * 			  if there is at least one failure -- the first failure is thrown
+	 */
+	public static void runManyTimesInParallel(MultithreadedTestCaseFactory factory,
+			int count) throws Throwable {
+		runManyTimesInParallel(factory, count, 
+				Runtime.getRuntime().availableProcessors(), null);
+	}
 	
 	/**
 	 * Run multithreaded test case multiple times using the default or global settings
@@ -215,8 +547,43 @@ public class TestFramework {
 	public static void runManyTimes(final MultithreadedTestCase test, int count,
 			Integer clockPeriod, Integer runLimit)
 			throws Throwable {
-		for (int i = 0; i < count; i++) 
-			runOnce(test, clockPeriod, runLimit);
+		runManyTimes(test, count, clockPeriod, runLimit, null);
+	}
+
+	/**
+	 * Run multithreaded test case multiple times, with reproducible random
+	 * choices.
+	 * 
+	 * @param test
+	 *            The multithreaded test case to run
+	 * @param count
+	 *            the number of times to run the test case
+	 * @param clockPeriod
+	 * 			  The period (in ms) between checks for the clock (or null for 
+	 * 			  default or global setting)
+	 * @param runLimit
+	 * 			  The limit to run the test in seconds (or null for default or
+	 * 			  global setting)
+	 * @param seed
+	 * 			  The seed of the first run, from which the seeds of the other 
+	 * 			  runs are derived (or null for global setting or a random seed)
+	 * @throws Throwable
+	 * 			  -- if any of the test runs fails, the exception is thrown immediately
+	 * 			  without completing the rest of the test runs.
+	 * @see #SEED_KEY
+	 */
+	public static void runManyTimes(final MultithreadedTestCase test, int count,
+			Integer clockPeriod, Integer runLimit, Long seed)
+			throws Throwable {
+		long firstSeed = Seeds.choose(seed);
+		WorkerPool pool = newPool(test);
+		try {
+			for (int i = 0; i < count; i++) 
+				runOnce(test, clockPeriod, runLimit, pool, Seeds.forRun(firstSeed, i));
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
 	}
 
 	
@@ -251,6 +618,293 @@ public class TestFramework {
 	public static void runOnce(final MultithreadedTestCase test, 
 			Integer clockPeriod, Integer runLimit)
 			throws Throwable {
+		runOnce(test, clockPeriod, runLimit, (Long) null);
+	}
+
+	/**
+	 * Run multithreaded test case once, with reproducible random choices.
+	 * 
+	 * @param test
+	 *            The multithreaded test case to run
+	 * @param clockPeriod
+	 * 			  The period (in ms) between checks for the clock (or null for 
+	 * 			  default or global setting)
+	 * @param runLimit
+	 * 			  The limit to run the test in seconds (or null for default or
+	 * 			  global setting)
+	 * @param seed
+	 * 			  The seed of the run, e.g. one reported by a 
+	 * 			  {@link RunSeedException} (or null for global setting or a 
+	 * 			  random seed)
+	 * @throws Throwable
+	 * 			  if the test runs fails or causes an exception
+	 * @see #SEED_KEY
+	 */
+	public static void runOnce(final MultithreadedTestCase test, 
+			Integer clockPeriod, Integer runLimit, Long seed)
+			throws Throwable {
+		runOnce(test, clockPeriod, runLimit, null, Seeds.choose(seed));
+	}
+
+	/**
+	 * Repeat a controlled run from the schedule written when it failed. The
+	 * run takes the same decisions as the failed run, with the same seed,
+	 * whatever strategy the test case has, and fails if it can't follow the
+	 * schedule. If the run follows the schedule and passes, e.g. because the
+	 * bug has been fixed, so does this.
+	 * 
+	 * @param test
+	 *            The multithreaded test case to run
+	 * @param scheduleFile
+	 *            the file named by the {@link RunSeedException} attached to
+	 *            the failure
+	 * @throws Throwable
+	 * 			  if the test run fails or causes an exception
+	 * @see RunSeedException#getScheduleFile(Throwable)
+	 * @since 1.02
+	 */
+	public static void replay(MultithreadedTestCase test, File scheduleFile)
+			throws Throwable {
+		replay(test, Schedule.read(scheduleFile));
+	}
+
+	/**
+	 * Repeat a controlled run from its schedule.
+	 * 
+	 * @see #replay(MultithreadedTestCase, File)
+	 * @since 1.02
+	 */
+	public static void replay(MultithreadedTestCase test, Schedule schedule)
+			throws Throwable {
+		test.replaying = schedule;
+		try {
+			runOnce(test, null, null, null, schedule.getSeed());
+		} finally {
+			test.replaying = null;
+		}
+	}
+
+	/**
+	 * Fuzz the schedules of the test case, guided by coverage. Schedules are
+	 * made by mutating the choices of the schedules in a corpus, and a
+	 * schedule that reaches new coverage joins the corpus. Coverage is made
+	 * of the context switches, as which thread was switched away from at
+	 * which of its yield points, and to which thread, and of the orders in
+	 * which the threads acquire the locks of
+	 * {@link MultithreadedTestCase#lockOn(java.util.concurrent.locks.Lock)}.
+	 * Unlike {@link #runManyTimes(MultithreadedTestCase, int)}, this keeps
+	 * finding new behaviors long after random schedules stop doing so.
+	 * 
+	 * <p>
+	 * The corpus is kept in a directory, which may be shared by several test
+	 * cases, and is where later fuzzing starts. Like
+	 * {@link #explore(MultithreadedTestCase, int)}, the threads run one at a
+	 * time, and the first failing run is thrown with its schedule attached.
+	 * 
+	 * @param test
+	 *            The multithreaded test case to run
+	 * @param corpusDir
+	 *            the directory of the corpus, which is created if it does not
+	 *            exist
+	 * @param maxRuns
+	 *            the largest number of runs
+	 * @param budget
+	 *            the time in milliseconds after which no more runs are
+	 *            started
+	 * @return how many runs were made, and what they covered
+	 * @throws Throwable
+	 * 			  if a run fails or causes an exception
+	 * @since 1.02
+	 */
+	public static FuzzReport fuzz(MultithreadedTestCase test, File corpusDir, 
+			int maxRuns, long budget) throws Throwable {
+		return new ScheduleFuzzer(test, corpusDir, maxRuns, budget, Seeds.choose(null)).fuzz();
+	}
+
+	/**
+	 * Shrink the schedule of a failed controlled run to one that fails the
+	 * same way with as few context switches and clock ticks as possible, by
+	 * delta debugging. Each candidate is checked by running the test case
+	 * with the seed of the schedule. The result can be replayed with
+	 * {@link #replay(MultithreadedTestCase, Schedule)}, and its
+	 * {@link Schedule#toString()} is a short trace of what happened.
+	 * 
+	 * @param test
+	 *            The multithreaded test case the schedule is from
+	 * @param scheduleFile
+	 *            the file named by the {@link RunSeedException} attached to
+	 *            the failure
+	 * @return the smallest failing schedule found
+	 * @throws IllegalArgumentException
+	 *            if replaying the schedule does not fail
+	 * @since 1.02
+	 */
+	public static Schedule minimize(MultithreadedTestCase test, File scheduleFile)
+			throws Throwable {
+		return minimize(test, Schedule.read(scheduleFile));
+	}
+
+	/**
+	 * Shrink the schedule of a failed controlled run.
+	 * 
+	 * @see #minimize(MultithreadedTestCase, File)
+	 * @since 1.02
+	 */
+	public static Schedule minimize(MultithreadedTestCase test, Schedule schedule)
+			throws Throwable {
+		return new ScheduleMinimizer(test, schedule).minimize();
+	}
+
+	/**
+	 * Run the test case under every schedule of its thread methods, up to a
+	 * number of runs, skipping schedules that only reorder independent steps
+	 * (dynamic partial-order reduction). The threads run one at a time and
+	 * switch only at the framework's yield points, like under a
+	 * {@link ScheduleStrategy}. To let the exploration tell independent steps
+	 * apart, name the object about to be accessed with
+	 * {@link MultithreadedTestCase#mayYieldOn(Object)}; steps starting at
+	 * yield points without an object are taken to conflict with every other
+	 * step.
+	 * 
+	 * <p>
+	 * Every run uses the same seed, from {@link #SEED_KEY} if it is set.
+	 * The first failing run ends the exploration, and its failure is thrown
+	 * with its schedule attached, as with any controlled run.
+	 * 
+	 * @param test
+	 *            The multithreaded test case to run
+	 * @param maxRuns
+	 *            the largest number of schedules to run
+	 * @return how many schedules were run and skipped, and whether all of
+	 *         them were covered
+	 * @throws Throwable
+	 * 			  if a run fails or causes an exception
+	 * @since 1.02
+	 */
+	public static ExplorationReport explore(MultithreadedTestCase test, int maxRuns)
+			throws Throwable {
+		if (maxRuns < 1)
+			throw new IllegalArgumentException("Bound must be at least 1: " + maxRuns);
+		return new DporExplorer(test, maxRuns, Seeds.choose(null)).explore();
+	}
+
+	/**
+	 * Run the test case under every schedule of its thread methods that
+	 * needs at most a given number of preemptions, i.e. of switches away from
+	 * a thread that could have kept running. All the schedules without
+	 * preemptions are run first, then those with one, and so on, until the
+	 * bound or the time budget is reached. Most concurrency bugs need only one
+	 * or two preemptions, so this finds them in far fewer runs than random
+	 * scheduling. Like {@link #explore(MultithreadedTestCase, int)}, the
+	 * threads run one at a time, every run uses the same seed, and the first
+	 * failing run is thrown.
+	 * 
+	 * @param test
+	 *            The multithreaded test case to run
+	 * @param maxPreemptions
+	 *            the largest number of preemptions to explore, or
+	 *            Integer.MAX_VALUE to go on until the budget runs out
+	 * @param budget
+	 *            the time in milliseconds after which no more runs are
+	 *            started
+	 * @return how many schedules were run, and up to how many preemptions
+	 *         all of them were covered
+	 * @throws Throwable
+	 * 			  if a run fails or causes an exception
+	 * @since 1.02
+	 */
+	public static ExplorationReport exploreBounded(MultithreadedTestCase test, 
+			int maxPreemptions, long budget) throws Throwable {
+		if (maxPreemptions < 0)
+			throw new IllegalArgumentException("Negative preemption bound: " + maxPreemptions);
+		return new BoundedExplorer(test, maxPreemptions, budget, Seeds.choose(null)).explore();
+	}
+
+	/**
+	 * Run multithreaded test case once, either in new threads or, if a pool is
+	 * given, in the pool's workers, and attach the seed of the run to its
+	 * failure, along with the schedule of a controlled run.
+	 * 
+	 * @param pool
+	 * 			  the workers to run the thread methods and the clock in, or null
+	 * 			  to start new threads
+	 * @param seed
+	 * 			  the seed of the run
+	 * @see #runOnce(MultithreadedTestCase, Integer, Integer, Long)
+	 */
+	private static void runOnce(final MultithreadedTestCase test, 
+			Integer clockPeriod, Integer runLimit, WorkerPool pool, long seed)
+			throws Throwable {
+		runOnce(test, clockPeriod, runLimit, pool, seed, true);
+	}
+
+	/**
+	 * Run a controlled test case once for a tool that runs it many times, such
+	 * as {@link ScheduleMinimizer}. The schedule of a failed run is attached to
+	 * its failure, but not written to a file.
+	 * 
+	 * @param replaying
+	 * 			  the schedule to replay, or null to use the test case's strategy
+	 */
+	static void runWithoutScheduleFile(MultithreadedTestCase test, long seed, 
+			Schedule replaying) throws Throwable {
+		test.replaying = replaying;
+		try {
+			runOnce(test, null, null, null, seed, false);
+		} finally {
+			test.replaying = null;
+		}
+	}
+
+	private static void runOnce(final MultithreadedTestCase test, 
+			Integer clockPeriod, Integer runLimit, WorkerPool pool, long seed,
+			boolean writeSchedule) throws Throwable {
+		test.scheduler = null;
+		test.lastSchedule = null;
+		try {
+			runSeeded(test, clockPeriod, runLimit, pool, seed);
+		} catch (Throwable e) {
+			// the same exception may be thrown by more than one run
+			if (RunSeedException.getSeed(e) == null) {
+				ControlledScheduler scheduler = test.scheduler;
+				Schedule schedule = scheduler == null ? null : scheduler.getSchedule();
+				File file = schedule == null || !writeSchedule ? null 
+						: writeSchedule(test, schedule, e);
+				e.addSuppressed(new RunSeedException(seed, file, schedule));
+			}
+			throw e;
+		} finally {
+			ControlledScheduler scheduler = test.scheduler;
+			test.lastSchedule = scheduler == null ? null : scheduler.getSchedule();
+			test.scheduler = null;
+		}
+	}
+
+	/**
+	 * Write the schedule of a failed controlled run to the directory named by
+	 * {@link #SCHEDULEDIR_KEY}.
+	 * 
+	 * @return the file, or null if it could not be written
+	 */
+	private static File writeSchedule(MultithreadedTestCase test, Schedule schedule, 
+			Throwable failure) {
+		File dir = new File(System.getProperty(SCHEDULEDIR_KEY, 
+				System.getProperty("java.io.tmpdir")));
+		File file = new File(dir, test.getClass().getName() + "-" 
+				+ Long.toHexString(schedule.getSeed()) + ".schedule");
+		try {
+			dir.mkdirs();
+			schedule.write(file);
+			return file;
+		} catch (IOException e) {
+			failure.addSuppressed(e);
+			return null;
+		}
+	}
+
+	private static void runSeeded(final MultithreadedTestCase test, 
+			Integer clockPeriod, Integer runLimit, WorkerPool pool, long seed)
+			throws Throwable {
 
 		// choose global setting if parameter is null, or default value if there
 		// is no global setting
@@ -263,27 +917,61 @@ public class TestFramework {
 		
 		// prepare run data structures
 		ThreadedMethod[] methods = test.getThreadedMethods();
-		LinkedList<Thread> threads = new LinkedList<Thread>();
+		List<Thread> threads = new CopyOnWriteArrayList<Thread>();
 		final Throwable[] error = new Throwable[1];
 		
+		// counted down by each thread method as it returns
+		CountDownLatch completion = new CountDownLatch(methods.length);
+		
+		// forget the last run's threads first, so that threads registered by
+		// the initialize method are kept
+		synchronized (test.lock) {
+			test.threads.clear();
+		}
+		
 		// invoke initialize method before each run
 		test.onInitialize();
 		test.setTick(0L);
+		test.startRun(seed);
+		
+		// under controlled scheduling, the threads take turns
+		ScheduleStrategy strategy = test.getScheduleStrategy();
+		Schedule replaying = test.replaying;
+		ControlledScheduler scheduler = strategy == null && replaying == null ? null 
+				: new ControlledScheduler(test, strategy, methods, 
+						new Random(Seeds.forScheduler(seed)), error, seed, replaying);
+		test.scheduler = scheduler;
 		
 		// invoke each thread method in a separate thread and place all threads in a
 		// new thread group
-		ThreadGroup threadGroup = startMethodThreads(test, methods, threads, error);
+		ThreadGroup threadGroup = startMethodThreads(test, methods, threads, error, completion, pool, scheduler);
 		
 		// start and add clock thread
-		threads.add(startClock(test, threadGroup, error, clockPeriod, runLimit));
+		Thread clockThread = scheduler != null
+				? startSupervisor(test, scheduler, completion, clockPeriod, runLimit, pool)
+				: startClock(test, threadGroup, error, completion, clockPeriod, runLimit, pool);
+		threads.add(clockThread);
 		
-		// wait until all threads have ended
-		waitForMethodThreads(threads, error);
+		// wait until all thread methods have returned
+		if (pool == null)
+			waitForMethodThreads(test, threads, clockThread, completion, error);
+		else
+			waitForPooledThreads(test, pool, error);
 		
 		// invoke finish at the end of each run
 		test.onFinish();
 	}
 	
+	/**
+	 * @return a pool for running the test case many times, or null if it
+	 *         should not use pooled threads
+	 */
+	private static WorkerPool newPool(MultithreadedTestCase test) {
+		if (!test.isPooledThreads())
+			return null;
+		return new WorkerPool(test.getThreadFactory());
+	}
+
 	/**
 	 * Start and return a clock thread which periodically checks all the test case
 	 * threads and regulates them. 
@@ -295,6 +983,17 @@ public class TestFramework {
 	 * clock thread times out if a thread is in runnable or all are blocked and one is
 	 * in timed waiting for longer than the runLimit.
 	 * 
+	 * <p>
+	 * If the clock is event-driven, the clock thread is also woken up whenever
+	 * a thread blocks or unblocks in one of the framework's wait methods. When
+	 * every thread is known to be waiting for a future tick, the clock advances
+	 * right away; otherwise the usual confirmation over two clock periods is
+	 * still required.
+	 * 
+	 * <p>
+	 * The clock thread waits for the next period on the run's completion latch,
+	 * so it ends as soon as the last thread method returns.
+	 * 
 	 * @param test
 	 * 			the test case the clock thread is regulating
 	 * @param threadGroup
@@ -302,12 +1001,17 @@ public class TestFramework {
 	 * @param error
 	 * 			an array containing any Errors/Exceptions that occur in thread methods
 	 * 			or that are thrown by the clock thread
+	 * @param completion
+	 * 			the latch counted down by each thread method as it returns
 	 * @param clockPeriod
 	 * 			The period (in ms) between checks for the clock (or null for 
 	 * 			default or global setting)
 	 * @param runLimit
 	 * 			The limit to run the test in seconds (or null for default or
 	 * 			global setting)
+	 * @param pool
+	 * 			the pool whose clock worker should run the clock, or null to
+	 * 			start a new thread
 	 * @return
 	 * 			The (already started) clock thread
 	 */
@@ -315,8 +1019,10 @@ public class TestFramework {
 			final MultithreadedTestCase test, 
 			final ThreadGroup threadGroup, 
 			final Throwable[] error,
+			final CountDownLatch completion,
 			final int clockPeriod,
-			final int runLimit) {
+			final int runLimit,
+			WorkerPool pool) {
 
 		// hold a reference to the current thread. This thread
 		// will be waiting for all the test threads to finish. It
@@ -324,15 +1030,40 @@ public class TestFramework {
 		// in the clock thread
 		final Thread mainThread = Thread.currentThread();
 		
-		Thread t = new Thread("Tick thread") {
+		// reused by the clock thread every period; threads from a factory or
+		// registered by the test need not be part of the thread group, so they
+		// are tracked through the registry too
+		final ThreadSnapshot snapshot = new ThreadSnapshot(threadGroup, test.threads, test.lock);
+		
+		Runnable r = new Runnable() {
 			public void run() {
 				try {
 					long lastProgress = System.currentTimeMillis();
 					int deadlocksDetected = 0;
 					int readyToTick = 0;
+					boolean eventDriven = test.isEventDrivenClock();
+					long clockPeriodNanos = TimeUnit.MILLISECONDS.toNanos(clockPeriod);
+					// set when the clock advanced without waking any thread, so
+					// the next tick can be taken without waiting for an event
+					boolean rescan = false;
 					while (true) {
 						
-						Thread.sleep(clockPeriod);
+						// true unless an event woke us up before the period ended
+						boolean periodElapsed = true;
+						if (rescan) {
+							rescan = false;
+							periodElapsed = false;
+						} else if (eventDriven) {
+							long start = System.nanoTime();
+							LockSupport.parkNanos(clockPeriodNanos);
+							if (Thread.interrupted())
+								throw new InterruptedException();
+							if (completion.getCount() == 0)
+								return;
+							periodElapsed = System.nanoTime() - start >= clockPeriodNanos;
+						} else if (completion.await(clockPeriod, TimeUnit.MILLISECONDS)) {
+							return;
+						}
 						
 						// Attempt to get a write lock; this succeeds
 						// if clock is not frozen
@@ -340,8 +1071,7 @@ public class TestFramework {
 							runLimit, TimeUnit.SECONDS)) 
 						{
 							synchronized (test.lock) {
-								test.failed = true;
-								test.lock.notifyAll();
+								test.markFailed();
 								if (error[0] == null)
 									error[0] = new IllegalStateException(
 											"No progress");
@@ -350,15 +1080,30 @@ public class TestFramework {
 							}
 						}
 						
+						// Get the contents of the thread group and their states.
+						// Don't hold the test case's lock meanwhile, or threads
+						// about to take it would all look blocked.
+						int tgCount;
+						try {
+							tgCount = snapshot.take();
+						} catch (Throwable e) {
+							test.clockLock.writeLock().unlock();
+							throw e;
+						}
+						if (test.getTrace())
+							System.out.println(snapshot.describe());
+						
 						synchronized (test.lock) {
 
 							try {
 
-								// Get the contents of the thread group
-								int tgCount = threadGroup.activeCount() + 10;
-								Thread[] ths = new Thread [tgCount];
-								tgCount = threadGroup.enumerate(ths, false);
-								if (tgCount == 0) return; // all threads are done
+								// A lock cycle reported by the JVM will never resolve,
+								// whatever the other threads are doing
+								long[] deadlocked = snapshot.findDeadlockedThreads();
+								if (deadlocked != null) {
+									reportDeadlock(deadlocked);
+									return;
+								}
 
 								// will set to true to force a check for timeout conditions
 								// and restart the loop
@@ -367,45 +1112,63 @@ public class TestFramework {
 								// will set true if any thread is in state TIMED_WAITING							
 								boolean timedWaiting = false; 
 
+								long tick = test.getTick();
 								long nextTick = Long.MAX_VALUE;
 
+								// will stay true if every thread is known to be blocked
+								// in waitForTick for a future tick
+								boolean quiescent = eventDriven;
+
+								// number of threads that have not said goodbye yet
+								int activeCount = 0;
+
 								// examine the threads in the thread group; look for
 								// next tick
 								for (int ii = 0; ii < tgCount; ii++) {
-									Thread t = ths[ii];
+									int slot = test.threads.indexOf(snapshot.getThread(ii));
+									if (slot >= 0 && test.threads.isDeparted(slot))
+										continue;
 									
-									if (!isJDK14) {
-										try {
-											if (test.getTrace())
-												System.out.println(t.getName() + " is in state " 
-														+ t.getState());
-		
-											if (t.getState() == Thread.State.RUNNABLE)
-												checkProgress = true;
-											if (t.getState() == Thread.State.TIMED_WAITING)
-												timedWaiting = true;
-										} catch (Throwable e) {
-											// JVM may not support Thread.State
-											checkProgress = false;
+									// registered threads don't say goodbye
+									Thread.State state = isJDK14 ? null : snapshot.getState(ii);
+									if (state == Thread.State.TERMINATED)
+										continue;
+									activeCount++;
+									
+									// a thread that has registered to wait for a future
+									// tick can only be released by the clock, even if it
+									// has not parked yet
+									long waitingFor = slot >= 0 ? test.threads.getWaitingFor(slot) : 0;
+									boolean waitsForClock = eventDriven && waitingFor > tick;
+									
+									// don't mistake threads on their way out of the start
+									// barrier, or not started yet, for blocked ones
+									if (slot >= 0 && test.threads.isStarting(slot))
+										checkProgress = true;
+									
+									if (state != null) {
+										if ((state == Thread.State.RUNNABLE || state == Thread.State.NEW)
+												&& !waitsForClock)
+											checkProgress = true;
+										if (state == Thread.State.TIMED_WAITING)
 											timedWaiting = true;
-										}
 									} else {
 										// JVM does not support Thread.State
 										checkProgress = false;
 										timedWaiting = true;
 									}
 									
-									Long waitingFor = test.threads.get(t);
-									if (waitingFor != null && waitingFor > test.getTick())
+									if (waitingFor > tick)
 										nextTick = Math.min(nextTick, waitingFor);								
+									else
+										quiescent = false;
 								}
+								if (activeCount == 0) return; // all threads are done or exiting
 
 								// Examine registered ticks that should not be skipped.
-								while (!test.ticks.isEmpty() && test.ticks.first() <= test.getTick()) {
-									test.ticks.remove(test.ticks.first());
-								}
+								test.ticks.removeUpTo(tick);
 								if (!test.ticks.isEmpty()) {
-									Long first = test.ticks.first();
+									long first = test.ticks.first();
 									if (first < nextTick) {
 										nextTick = first;
 										checkProgress = false;
@@ -426,8 +1189,7 @@ public class TestFramework {
 									}
 									long now = System.currentTimeMillis();
 									if (now - lastProgress > TimeUnit.SECONDS.toMillis(runLimit)) {
-										test.failed = true;
-										test.lock.notifyAll();
+										test.markFailed();
 										if (error[0] == null)
 											error[0] = new IllegalStateException(
 											"No progress");
@@ -445,47 +1207,34 @@ public class TestFramework {
 											System.out.println("Was Ready to tick too early");
 										readyToTick = 0;
 									}
-									if (++deadlocksDetected < 50) {
+
+									if (periodElapsed) deadlocksDetected++;
+									if (deadlocksDetected < 50) {
 										if (deadlocksDetected % 10 == 0 && test.getTrace())
 											System.out.println("[Detecting deadlock... " + 
 													deadlocksDetected + " trys]");
 										continue;
 									}
-									if (test.getTrace()) System.out.println("Deadlock!");
-									
-									StringWriter sw = new StringWriter();
-									PrintWriter out = new PrintWriter(sw);
-									for (Map.Entry<Thread, Long> e : test.threads
-											.entrySet()) {
-										Thread t = e.getKey();
-										out.println(t.getName() + " "
-												+ t.getState());
-										for (StackTraceElement st : t
-												.getStackTrace()) {
-											out.println("  " + st);
-										}									
-									}
-									test.failed = true;
-									if (error[0] == null)
-										error[0] = new IllegalStateException(
-												"Apparent deadlock\n" + sw.toString());
-									mainThread.interrupt();
+									reportDeadlock(null);
 									return;
 								}
 								
 								deadlocksDetected = 0;
 								
-								if (++readyToTick < 2) {
-									continue;
+								// Unless every thread is known to be waiting for a tick,
+								// require the threads to stay blocked for two periods
+								if (!quiescent) {
+									if (periodElapsed) readyToTick++;
+									if (readyToTick < 2) continue;
 								}
 								readyToTick = 0; 
 								
-								// Advance to next tick
-								test.setTick(nextTick);
+								// Advance to next tick, releasing any threads that
+								// are waiting for it
+								int released = test.setTick(nextTick);
+								rescan = quiescent && released == 0;
 								lastProgress = System.currentTimeMillis();
 								
-								// notify any threads that are waiting for this tick
-								test.lock.notifyAll();
 								if (test.getTrace())
 									System.out.println("Time is now " + test.getTick());
 							} finally {
@@ -499,49 +1248,185 @@ public class TestFramework {
 						System.out.println("Tick thread killed");
 				}
 			}
+
+			/**
+			 * Fail the run with a report of the deadlocked threads and the
+			 * locks they wait for. Callers must hold the test case's lock.
+			 * 
+			 * @param deadlocked
+			 *            the ids of the threads in a lock cycle reported by
+			 *            the JVM, or null if the deadlock is only apparent
+			 */
+			private void reportDeadlock(long[] deadlocked) {
+				if (test.getTrace()) System.out.println("Deadlock!");
+				
+				StringWriter sw = new StringWriter();
+				PrintWriter out = new PrintWriter(sw);
+				out.println(deadlocked != null ? "Lock cycle:" : "Lock graph:");
+				out.print(snapshot.describeLockGraph(deadlocked));
+				for (int slot = 0; slot < test.threads.size(); slot++) {
+					if (test.threads.isDeparted(slot))
+						continue;
+					Thread t = test.threads.getThread(slot);
+					out.println(t.getName() + " "
+							+ t.getState());
+					for (StackTraceElement st : t
+							.getStackTrace()) {
+						out.println("  " + st);
+					}									
+				}
+				test.markFailed();
+				if (error[0] == null)
+					error[0] = new IllegalStateException(
+							"Apparent deadlock\n" + sw.toString());
+				mainThread.interrupt();
+			}
 		};
-		t.setDaemon(true);
-		t.start();
+		Thread t;
+		if (pool != null) {
+			t = pool.getClock();
+		} else {
+			t = new Thread(r, "Tick thread");
+			t.setDaemon(true);
+		}
+		test.clockThread = t;
+		if (pool != null)
+			pool.execute(t, r);
+		else
+			t.start();
 		return t;
 	}
 
 	/**
-	 * Wait for all of the test case threads to complete, or for one
-	 * of the threads to throw an exception, or for the clock thread to
-	 * interrupt this (main) thread of execution. When the clock thread
-	 * or other threads fail, the error is placed in the shared error array
-	 * and thrown by this method.
+	 * Start and return a thread that supervises a controlled run in place of
+	 * the clock thread. The scheduler advances the clock itself; once every
+	 * clock period, this checks on the threads that block outside the
+	 * framework's yield points.
 	 * 
+	 * @see ControlledScheduler#supervise(int)
+	 */
+	private static Thread startSupervisor(
+			final MultithreadedTestCase test, 
+			final ControlledScheduler scheduler, 
+			final CountDownLatch completion,
+			final int clockPeriod,
+			final int runLimit,
+			WorkerPool pool) {
+		Runnable r = new Runnable() {
+			public void run() {
+				try {
+					while (!completion.await(clockPeriod, TimeUnit.MILLISECONDS))
+						scheduler.supervise(runLimit);
+				} catch (InterruptedException e) {
+					// the run has been cancelled
+					if (test.getTrace())
+						System.out.println("Supervisor thread killed");
+				}
+			}
+		};
+		Thread t;
+		if (pool != null) {
+			t = pool.getClock();
+		} else {
+			t = new Thread(r, "Tick thread");
+			t.setDaemon(true);
+		}
+		test.clockThread = t;
+		if (pool != null)
+			pool.execute(t, r);
+		else
+			t.start();
+		return t;
+	}
+
+	/**
+	 * Wait for all of the thread methods to return, or for one of the threads
+	 * to throw an exception, or for the clock thread to interrupt this (main)
+	 * thread of execution. The run is over as soon as the last thread method
+	 * returns; this then only waits for the clock thread, which ends right
+	 * away. When the clock thread or other threads fail, the error is placed
+	 * in the shared error array, the run is cancelled, and the error is thrown
+	 * by this method.
+	 * 
+	 * @param test
+	 * 			the test case being run
 	 * @param threads
 	 * 			List of all the test case threads and the clock thread
+	 * @param clockThread
+	 * 			the clock thread
+	 * @param completion
+	 * 			the latch counted down by each thread method as it returns
 	 * @param error
 	 * 			an array containing any Errors/Exceptions that occur in thread methods
 	 * 			or that are thrown by the clock thread
 	 * @throws Throwable
 	 * 			The first error or exception that is thrown by one of the threads
 	 */
-	@SuppressWarnings("deprecation")
-	private static void waitForMethodThreads(LinkedList<Thread> threads,
+	private static void waitForMethodThreads(MultithreadedTestCase test, 
+			List<Thread> threads, Thread clockThread, CountDownLatch completion, 
 			final Throwable[] error) throws Throwable {
-		for (Thread t : threads)
-			try {
-				if (t.isAlive() && error[0] != null)
-					t.stop();
-				else
-					t.join();
-			} catch (InterruptedException e1) {
-				if (error[0] != null)
-					throw error[0];
-				throw new AssertionError(e1);
-			}
-		if (error[0] != null)
+		try {
+			completion.await();
+			clockThread.join();
+			// the methods have returned, but their threads may not have
+			// terminated yet; finish expects them to have
+			for (Thread t : threads)
+				t.join();
+		} catch (InterruptedException e1) {
+			cancelRun(test, threads);
+			if (error[0] != null)
+				throw error[0];
+			throw new AssertionError(e1);
+		}
+		if (error[0] != null) {
+			cancelRun(test, threads);
 			throw error[0];
+		}
+	}
+
+	/**
+	 * Wait for all the tasks of a pooled run to complete, or for one of the
+	 * threads to throw an exception, or for the clock thread to interrupt this
+	 * (main) thread of execution. If the run fails, it is cancelled, the pool's
+	 * workers are discarded and the error is thrown.
+	 * 
+	 * @param test
+	 * 			the test case being run
+	 * @param pool
+	 * 			the pool running the test case threads and the clock
+	 * @param error
+	 * 			an array containing any Errors/Exceptions that occur in thread methods
+	 * 			or that are thrown by the clock thread
+	 * @throws Throwable
+	 * 			The first error or exception that is thrown by one of the threads
+	 */
+	private static void waitForPooledThreads(MultithreadedTestCase test, 
+			WorkerPool pool, final Throwable[] error) throws Throwable {
+		InterruptedException interrupted = null;
+		try {
+			pool.awaitRun(error);
+		} catch (InterruptedException e1) {
+			interrupted = e1;
+		}
+		if (error[0] != null || interrupted != null) {
+			synchronized (test.lock) {
+				test.markFailed();
+			}
+			pool.reset();
+			
+			// the failing thread may have interrupted this thread after it
+			// stopped waiting; don't let that leak into the next run
+			Thread.interrupted();
+			if (error[0] != null)
+				throw error[0];
+			throw new AssertionError(interrupted);
+		}
 	}
 
 	/**
 	 * Invoke each of the thread methods in a separate thread and place them all
 	 * in a common (new) thread group. As a side-effect all the threads are
-	 * placed in the 'threads' LinkedList parameter, and any errors detected are
+	 * placed in the 'threads' list parameter, and any errors detected are
 	 * placed in the 'error' array parameter.
 	 * 
 	 * @param test
@@ -554,88 +1439,175 @@ public class TestFramework {
 	 * @param error
 	 *            By the time this method returns, this parameter will contains
 	 *            the first error thrown by one of the threads.
+	 * @param completion
+	 *            the latch each thread counts down when its method returns
+	 * @param pool
+	 *            the pool whose workers should run the methods, or null to
+	 *            start new threads
+	 * @param scheduler
+	 *            the scheduler the threads take turns with, or null
 	 * @return The thread group for all the newly created test case threads
 	 */
 	private static ThreadGroup startMethodThreads(final MultithreadedTestCase test, ThreadedMethod[] threadMethods,
-			final LinkedList<java.lang.Thread> threads, final Throwable[] error) {
-		ThreadGroup threadGroup = new ThreadGroup("MTC-Threads");
-		final CountDownLatch latch = new CountDownLatch(threadMethods.length);
+			final List<java.lang.Thread> threads, final Throwable[] error, 
+			final CountDownLatch completion, WorkerPool pool, ControlledScheduler scheduler) {
+		final Thread mainThread = Thread.currentThread();
+		ThreadGroup threadGroup = pool != null ? pool.getThreadGroup() : new ThreadGroup("MTC-Threads");
+		final StartBarrier barrier = new StartBarrier(threadMethods.length, 
+				test.isSpinStart(), test.getStartJitter());
 		final Semaphore waitForRegistration = new Semaphore(0);
 		final AtomicBoolean signalledError = new AtomicBoolean(false);
-		for (final ThreadedMethod threadMethod : threadMethods) {
+		for (int i = 0; i < threadMethods.length; i++) {
+			final ThreadedMethod threadMethod = threadMethods[i];
+			final int index = i;
 			Runnable r = new Runnable() {
 				public void run() {
 					try {
+						Random random = test.initRandom(index);
 						waitForRegistration.release();
-						latch.countDown();
-						latch.await();
+						barrier.await(random);
 
 						// At this point all threads are created and released
 						// (in random order?) together to run in parallel
 
 						test.hello();
-						makeAccessible(threadMethod.getMethod());
-						threadMethod.getMethod().invoke(test);
-					} catch (InvocationTargetException e) {
-						Throwable cause = e.getCause();
-						if (cause instanceof ThreadDeath)
-							return;
-						if (error[0] == null) {
-							error[0] = cause;
-						}
-						if (signalledError.compareAndSet(false, true))
-							signalError(threads);
+						threadMethod.invoke(test);
 					} catch (ThreadDeath e) {
 						// ignore it
 					} catch (Throwable e) {
-						System.out.println(java.lang.Thread.currentThread().getName() + " caught " + e.getMessage());
 						if (error[0] == null)
 							error[0] = e;
 						if (signalledError.compareAndSet(false, true))
-							signalError(threads);
+							signalError(test, threads, mainThread);
 					} finally {
 						test.goodbye();
+						completion.countDown();
 					}
 				}
 			};
-			java.lang.Thread t = new java.lang.Thread(threadGroup, r, threadMethod.getName());
+			java.lang.Thread t;
+			if (pool != null) {
+				t = pool.getWorker(i, threadMethod.getName());
+			} else if (test.getThreadFactory() != null) {
+				t = test.getThreadFactory().newThread(threadGroup, r, threadMethod.getName());
+			} else {
+				t = new java.lang.Thread(threadGroup, r, threadMethod.getName());
+				// a thread that ignores cancellation must not keep the JVM alive
+				t.setDaemon(true);
+			}
 			threads.add(t);
 
 			// add thread to map of method threads, mapped by name
-			test.putThread(t.getName(), t);
+			test.putThread(threadMethod.getName(), t);
+			
+			// register it before it starts, so the clock thread sees it even
+			// if it can't enumerate it, and knows it is still starting
+			synchronized (test.lock) {
+				test.threads.registerStarting(t);
+			}
+			if (scheduler != null)
+				scheduler.setThread(i, t);
 
-			t.start();
+			if (pool != null)
+				pool.execute(t, r);
+			else
+				t.start();
 			waitForRegistration.acquireUninterruptibly();
 		}
 		return threadGroup;
 	}
 
 	/**
-	 * Stop all test case threads and clock thread, except the thread from 
-	 * which this method is called. This method is used when a thread is 
-	 * ready to end in failure and it wants to make sure all the other
-	 * threads have ended before throwing an exception.
+	 * Cancel the run when a thread is ready to end in failure: interrupt all
+	 * the test case threads and the clock thread, except the thread from which
+	 * this method is called, and the main thread, which then stops waiting for
+	 * the run and waits for the threads to stop instead. All threads are
+	 * interrupted at once rather than one after another.
 	 * 
+	 * @param test
+	 * 			the test case being run
 	 * @param threads
-	 * 			LinkedList of all the test case threads and the clock thread
+	 * 			List of all the test case threads and the clock thread
+	 * @param mainThread
+	 * 			the thread waiting for the run to finish
 	 */
-	@SuppressWarnings("deprecation")
-	private static void signalError(final LinkedList<Thread> threads) {
+	private static void signalError(MultithreadedTestCase test, 
+			final List<Thread> threads, Thread mainThread) {
+		synchronized (test.lock) {
+			test.markFailed();
+		}
+		interruptAll(threads);
+		mainThread.interrupt();
+	}
+
+	/**
+	 * Cancel a failed run and wait for its threads to stop: the run's
+	 * cancellation token is cancelled, which makes threads waiting in
+	 * {@link MultithreadedTestCase#waitForTick(long)} and friends throw, every
+	 * thread is interrupted, and then this waits until they have all stopped
+	 * or {@link #CANCEL_TIMEOUT} has passed.
+	 * 
+	 * @param test
+	 * 			the test case being run
+	 * @param threads
+	 * 			List of all the test case threads and the clock thread
+	 */
+	private static void cancelRun(MultithreadedTestCase test, List<Thread> threads) {
+		synchronized (test.lock) {
+			test.markFailed();
+		}
+		interruptAll(threads);
+		joinAll(threads, CANCEL_TIMEOUT);
+	}
+
+	/**
+	 * Interrupt every live thread except the current thread.
+	 */
+	static void interruptAll(Iterable<Thread> threads) {
 		Thread currentThread = Thread.currentThread();
 		for (Thread t : threads)
-			if (t != currentThread && t.isAlive()) {
+			if (t != currentThread && t.isAlive())
 				t.interrupt();
+	}
+
+	/**
+	 * Wait for every thread except the current thread to stop, but no longer
+	 * than the given time in total. Threads the JVM reports as deadlocked can
+	 * never stop, so they are not waited for. Interrupts received while
+	 * waiting are ignored: they come from the threads being cancelled.
+	 * 
+	 * @param threads
+	 * 			the threads to wait for
+	 * @param timeout
+	 * 			the maximum time to wait, in milliseconds
+	 * @return true if all the threads have stopped
+	 */
+	static boolean joinAll(Iterable<Thread> threads, long timeout) {
+		Thread currentThread = Thread.currentThread();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long[] deadlocked = ThreadSnapshot.findAllDeadlockedThreads();
+		boolean stopped = true;
+		for (Thread t : threads) {
+			if (t == currentThread)
+				continue;
+			if (deadlocked != null && ThreadSnapshot.contains(deadlocked, t.getId())) {
+				stopped = false;
+				continue;
+			}
+			while (t.isAlive()) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0)
+					break;
 				try {
-					Thread.sleep(100);
+					t.join(remaining);
 				} catch (InterruptedException e) {
-					assert true; // ignore
+					// keep waiting
 				}
-				AssertionError assertionError = new AssertionError(t.getName()
-						+ " killed by " + currentThread.getName());
-				StackTraceElement[] stackTrace = t.getStackTrace();
-				if (stackTrace != null) assertionError.setStackTrace(stackTrace);
-				if (t.isAlive()) t.stop(assertionError);
 			}
+			stopped &= !t.isAlive();
+		}
+		Thread.interrupted();
+		return stopped;
 	}
 
 	/**
@@ -0,0 +1,68 @@
+package edu.umd.cs.mtc;
+
+/**
+ * Ready-made {@link TestThreadFactory} implementations. Each has a public
+ * no-argument constructor (or a subclass can supply one), so they can be
+ * named in {@link Multithreaded#threadFactory()}.
+ * 
+ * @see TestThreadFactory
+ * @since 1.02
+ */
+public class TestThreadFactories {
+
+	private TestThreadFactories() {
+		// not instantiable
+	}
+
+	/**
+	 * Creates daemon platform threads in the run's thread group, the same as
+	 * the framework does without a factory.
+	 */
+	public static class Platform implements TestThreadFactory {
+		public Thread newThread(ThreadGroup group, Runnable task, String name) {
+			Thread t = new Thread(group, task, name);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * Creates virtual threads, or daemon platform threads if the JVM does not
+	 * have virtual threads.
+	 * 
+	 * @see VirtualThreads
+	 */
+	public static class Virtual implements TestThreadFactory {
+		public Thread newThread(ThreadGroup group, Runnable task, String name) {
+			if (VirtualThreadFactory.isSupported())
+				return VirtualThreadFactory.newThread(task, name);
+			return new Platform().newThread(group, task, name);
+		}
+	}
+
+	/**
+	 * Creates daemon platform threads with a given stack size. To use a
+	 * particular size with {@link Multithreaded#threadFactory()}, subclass
+	 * this with a no-argument constructor that passes the size.
+	 * 
+	 * @see Thread#Thread(ThreadGroup, Runnable, String, long)
+	 */
+	public static class StackSize implements TestThreadFactory {
+		private final long stackSize;
+
+		/**
+		 * @param stackSize
+		 *            the desired stack size in bytes, or zero to use the JVM's
+		 *            default
+		 */
+		public StackSize(long stackSize) {
+			this.stackSize = stackSize;
+		}
+
+		public Thread newThread(ThreadGroup group, Runnable task, String name) {
+			Thread t = new Thread(group, task, name, stackSize);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
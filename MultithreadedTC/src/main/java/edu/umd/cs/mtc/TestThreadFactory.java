@@ -0,0 +1,46 @@
+package edu.umd.cs.mtc;
+
+/**
+ * Creates the threads that run the thread methods of a
+ * {@link MultithreadedTestCase}. By default, {@link TestFramework} runs each
+ * thread method in a new daemon platform thread in an "MTC-Threads" thread
+ * group. A factory can be used to run them on other kinds of threads, for
+ * example virtual threads or threads with a particular stack size, to see
+ * how the kind of thread affects a test. {@link TestThreadFactories} has
+ * some ready-made factories. With
+ * {@link MultithreadedTestCase#setPooledThreads(boolean)}, the factory makes
+ * the pooled threads, which keep their names from one run to the next.
+ * 
+ * <p>
+ * Threads created by a factory don't have to belong to the given thread
+ * group: when a factory is used, the clock thread keeps track of the threads
+ * through the test case instead. Threads that a test creates itself should be
+ * made known to the clock thread with
+ * {@link MultithreadedTestCase#registerThread(Thread)}.
+ * 
+ * <p>
+ * A factory used with the {@link Multithreaded @Multithreaded} annotation
+ * needs a public no-argument constructor.
+ * 
+ * @see TestFramework#setGlobalThreadFactory(Class)
+ * @see MultithreadedTestCase#setThreadFactory(TestThreadFactory)
+ * @see Multithreaded#threadFactory()
+ * @since 1.02
+ */
+public interface TestThreadFactory {
+
+	/**
+	 * Create a new, unstarted thread.
+	 * 
+	 * @param group
+	 *            the thread group of the run, which platform threads may be
+	 *            put in
+	 * @param task
+	 *            what the thread runs
+	 * @param name
+	 *            the name of the thread method, which the thread should be
+	 *            named after
+	 * @return the thread, which the framework will start
+	 */
+	public Thread newThread(ThreadGroup group, Runnable task, String name);
+}
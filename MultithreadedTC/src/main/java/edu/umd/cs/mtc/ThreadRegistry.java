@@ -0,0 +1,161 @@
+package edu.umd.cs.mtc;
+
+import java.util.Arrays;
+
+/**
+ * The threads taking part in a run of a {@link MultithreadedTestCase}, and the
+ * clock tick each of them is waiting for. Each thread gets a slot, its
+ * ordinal in the current run, the first time it registers. Slots are looked
+ * up by thread id in an open-addressing table, and the per-thread data is
+ * kept in primitive arrays, so registering, updating and scanning threads
+ * does not allocate once the arrays have grown to the size of the test.
+ *
+ * <p>
+ * This class is not thread safe; callers must hold the test case's lock.
+ *
+ * @see MultithreadedTestCase#hello()
+ * @see MultithreadedTestCase#waitForTick(long)
+ * @since 1.02
+ */
+class ThreadRegistry {
+
+	private Thread[] threads = new Thread[8];
+	private long[] waitingFor = new long[8];
+	private boolean[] departed = new boolean[8];
+	private boolean[] starting = new boolean[8];
+	private int size;
+
+	/**
+	 * Open-addressing table mapping thread ids to slot + 1 (so that 0 means
+	 * empty). Its length is always a power of two at least twice the number
+	 * of slots.
+	 */
+	private long[] tableIds = new long[16];
+	private int[] tableSlots = new int[16];
+
+	/**
+	 * Register a thread, or find its slot if it is already registered.
+	 *
+	 * @return the slot of the thread
+	 */
+	int register(Thread t) {
+		int slot = indexOf(t);
+		if (slot >= 0)
+			return slot;
+		if (size == threads.length)
+			grow();
+		slot = size++;
+		threads[slot] = t;
+		waitingFor[slot] = 0;
+		departed[slot] = false;
+		starting[slot] = false;
+		insert(t.getId(), slot);
+		return slot;
+	}
+
+	/**
+	 * Register a thread that has been created to run a thread method, but has
+	 * not started running it yet. Until it calls {@link #started(int)}, the
+	 * clock thread treats it as running, whatever its state: a thread that has
+	 * been released from the start barrier may still look like it is waiting
+	 * until it gets scheduled.
+	 *
+	 * @return the slot of the thread
+	 */
+	int registerStarting(Thread t) {
+		int slot = register(t);
+		starting[slot] = true;
+		return slot;
+	}
+
+	/**
+	 * Mark a thread registered with {@link #registerStarting(Thread)} as
+	 * running its thread method.
+	 */
+	void started(int slot) {
+		starting[slot] = false;
+	}
+
+	boolean isStarting(int slot) {
+		return starting[slot];
+	}
+
+	/**
+	 * @return the slot of the given thread, or -1 if it is not registered
+	 */
+	int indexOf(Thread t) {
+		long id = t.getId();
+		int mask = tableIds.length - 1;
+		for (int i = hash(id) & mask; tableIds[i] != 0; i = (i + 1) & mask) {
+			if (tableIds[i] == id) {
+				int slot = tableSlots[i] - 1;
+				return threads[slot] == t ? slot : -1;
+			}
+		}
+		return -1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	Thread getThread(int slot) {
+		return threads[slot];
+	}
+
+	long getWaitingFor(int slot) {
+		return waitingFor[slot];
+	}
+
+	void setWaitingFor(int slot, long tick) {
+		waitingFor[slot] = tick;
+	}
+
+	/**
+	 * Mark a thread as finished. It keeps its slot until the next
+	 * {@link #clear()}, but is ignored by the clock thread.
+	 */
+	void depart(int slot) {
+		departed[slot] = true;
+	}
+
+	boolean isDeparted(int slot) {
+		return departed[slot];
+	}
+
+	/**
+	 * Forget all threads, keeping the arrays for the next run.
+	 */
+	void clear() {
+		Arrays.fill(threads, 0, size, null);
+		Arrays.fill(tableIds, 0);
+		size = 0;
+	}
+
+	private void insert(long id, int slot) {
+		int mask = tableIds.length - 1;
+		int i = hash(id) & mask;
+		while (tableIds[i] != 0 && tableIds[i] != id)
+			i = (i + 1) & mask;
+		tableIds[i] = id;
+		tableSlots[i] = slot + 1;
+	}
+
+	private void grow() {
+		int capacity = threads.length * 2;
+		threads = Arrays.copyOf(threads, capacity);
+		waitingFor = Arrays.copyOf(waitingFor, capacity);
+		departed = Arrays.copyOf(departed, capacity);
+		starting = Arrays.copyOf(starting, capacity);
+
+		tableIds = new long[capacity * 2];
+		tableSlots = new int[capacity * 2];
+		for (int slot = 0; slot < size; slot++)
+			insert(threads[slot].getId(), slot);
+	}
+
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
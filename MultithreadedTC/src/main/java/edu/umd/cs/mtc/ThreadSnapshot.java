@@ -0,0 +1,305 @@
+package edu.umd.cs.mtc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * A reusable snapshot of all the threads in a thread group and of the
+ * threads registered with a test case. Each call to
+ * {@link #take()} enumerates the group into a preallocated buffer and fetches
+ * the state, lock and lock owner of every thread with a single call to
+ * {@link ThreadMXBean#getThreadInfo(long[])}, instead of querying each thread
+ * separately. This is used by the clock thread in {@link TestFramework}, which
+ * takes a snapshot every clock period.
+ *
+ * <p>
+ * The thread and state buffers are reused, but the MXBean returns a new
+ * array of new {@link ThreadInfo} objects on every call, which can't be
+ * avoided. The array of thread ids it is given must have exactly one entry
+ * per thread, so it is reused as long as the number of threads stays the
+ * same, which is the case between the start and the end of a run.
+ *
+ * <p>
+ * If the JVM does not provide a {@link ThreadMXBean}, or cannot report on a
+ * particular thread, the state is taken from {@link Thread#getState()}
+ * instead. If that is unavailable too, the state is reported as null.
+ *
+ * <p>
+ * Threads made by a {@link TestThreadFactory} or registered with
+ * {@link MultithreadedTestCase#registerThread(Thread)} need not belong to the
+ * thread group, so they are taken from the test case's {@link ThreadRegistry}
+ * as well. The MXBean can't report on virtual threads, which fall back to
+ * {@link Thread#getState()}.
+ *
+ * @see TestFramework
+ * @since 1.02
+ */
+class ThreadSnapshot {
+
+	/**
+	 * The platform thread MXBean, or null if it is unavailable
+	 */
+	private static final ThreadMXBean threadMXBean;
+
+	static {
+		ThreadMXBean bean = null;
+		try {
+			bean = ManagementFactory.getThreadMXBean();
+		} catch (Throwable e) {
+			// JVM does not support java.lang.management
+		}
+		threadMXBean = bean;
+	}
+
+	/**
+	 * The group to enumerate, or null if the threads only come from
+	 * {@link #registry}
+	 */
+	private final ThreadGroup threadGroup;
+
+	/**
+	 * The registry to take the threads outside {@link #threadGroup} from, or
+	 * null. Guarded by {@link #lock}.
+	 */
+	private final ThreadRegistry registry;
+
+	/**
+	 * The test case's lock, or null if there is no registry
+	 */
+	private final Object lock;
+
+	private Thread[] threads = new Thread[16];
+	private Thread.State[] states = new Thread.State[16];
+	private ThreadInfo[] infos = new ThreadInfo[0];
+
+	/**
+	 * The ids passed to the MXBean. This array must have exactly one entry per
+	 * thread, so it is reallocated whenever the number of threads changes.
+	 */
+	private long[] ids = new long[0];
+
+	private int count;
+
+	private final StringBuilder traceBuffer = new StringBuilder();
+
+	/**
+	 * @param threadGroup
+	 *            the group whose threads are examined by {@link #take()}
+	 */
+	ThreadSnapshot(ThreadGroup threadGroup) {
+		this(threadGroup, null, null);
+	}
+
+	/**
+	 * @param threadGroup
+	 *            the group whose threads are examined by {@link #take()}, or
+	 *            null
+	 * @param registry
+	 *            the registry whose threads outside the group are examined
+	 *            by {@link #take()}
+	 * @param lock
+	 *            the test case's lock, which guards the registry
+	 */
+	ThreadSnapshot(ThreadGroup threadGroup, ThreadRegistry registry, Object lock) {
+		this.threadGroup = threadGroup;
+		this.registry = registry;
+		this.lock = lock;
+	}
+
+	/**
+	 * Capture the current threads in the group and the registry, and their
+	 * states.
+	 *
+	 * @return the number of threads captured
+	 */
+	int take() {
+		int n = 0;
+		if (threadGroup != null) {
+			while ((n = threadGroup.enumerate(threads, false)) == threads.length)
+				threads = new Thread[threads.length * 2];
+		}
+		if (registry != null) {
+			synchronized (lock) {
+				int size = registry.size();
+				if (threads.length < n + size)
+					threads = Arrays.copyOf(threads, Math.max(n + size, threads.length * 2));
+				for (int i = 0; i < size; i++) {
+					Thread t = registry.getThread(i);
+					// threads in the group have been enumerated already; a
+					// terminated thread has no group any more
+					if (threadGroup == null || t.getThreadGroup() != threadGroup)
+						threads[n++] = t;
+				}
+			}
+		}
+		if (states.length < threads.length)
+			states = new Thread.State[threads.length];
+
+		// clear references left over from a larger snapshot
+		for (int i = n; i < count; i++)
+			threads[i] = null;
+		count = n;
+
+		if (threadMXBean != null && n > 0) {
+			if (ids.length != n)
+				ids = new long[n];
+			for (int i = 0; i < n; i++)
+				ids[i] = threads[i].getId();
+			try {
+				infos = threadMXBean.getThreadInfo(ids);
+			} catch (Throwable e) {
+				infos = new ThreadInfo[0];
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			ThreadInfo info = getInfo(i);
+			if (info != null) {
+				states[i] = info.getThreadState();
+			} else {
+				try {
+					states[i] = threads[i].getState();
+				} catch (Throwable e) {
+					// JVM may not support Thread.State
+					states[i] = null;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of threads captured by the last {@link #take()}
+	 */
+	int size() {
+		return count;
+	}
+
+	Thread getThread(int i) {
+		return threads[i];
+	}
+
+	/**
+	 * @return the state of the i-th thread, or null if the JVM cannot report it
+	 */
+	Thread.State getState(int i) {
+		return states[i];
+	}
+
+	/**
+	 * @return the MXBean's information for the i-th thread, including the lock
+	 *         it is blocked on and the owner of that lock, or null if it is
+	 *         unavailable
+	 */
+	ThreadInfo getInfo(int i) {
+		ThreadInfo[] infos = this.infos;
+		if (i >= infos.length || infos[i] == null
+				|| infos[i].getThreadId() != threads[i].getId())
+			return null;
+		return infos[i];
+	}
+
+	/**
+	 * Describe the state of every captured thread in a single string, one line
+	 * per thread, for tracing.
+	 */
+	String describe() {
+		StringBuilder sb = traceBuffer;
+		sb.setLength(0);
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append('\n');
+			sb.append(threads[i].getName()).append(" is in state ").append(states[i]);
+			appendLock(sb, getInfo(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Ask the JVM for threads in the last snapshot that are deadlocked, i.e.
+	 * that form a cycle waiting to acquire object monitors or ownable
+	 * synchronizers (such as a {@link java.util.concurrent.locks.ReentrantLock})
+	 * held by each other. Unlike the clock thread's own heuristic, such a cycle
+	 * can never resolve itself.
+	 * 
+	 * @return the ids of the deadlocked threads in the thread group, or null if
+	 *         there are none or the JVM cannot tell
+	 */
+	long[] findDeadlockedThreads() {
+		long[] deadlocked = findAllDeadlockedThreads();
+		if (deadlocked == null)
+			return null;
+
+		// only keep the threads that belong to the test
+		int n = 0;
+		for (long id : deadlocked) {
+			for (int i = 0; i < count; i++) {
+				if (threads[i].getId() == id) {
+					deadlocked[n++] = id;
+					break;
+				}
+			}
+		}
+		if (n == 0)
+			return null;
+		long[] result = new long[n];
+		System.arraycopy(deadlocked, 0, result, 0, n);
+		return result;
+	}
+
+	/**
+	 * Ask the JVM for all the threads that are deadlocked, whichever group
+	 * they belong to.
+	 * 
+	 * @return the ids of the deadlocked threads, or null if there are none or
+	 *         the JVM cannot tell
+	 */
+	static long[] findAllDeadlockedThreads() {
+		if (threadMXBean == null)
+			return null;
+		try {
+			if (threadMXBean.isSynchronizerUsageSupported())
+				return threadMXBean.findDeadlockedThreads();
+			else
+				return threadMXBean.findMonitorDeadlockedThreads();
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Describe which lock each thread is waiting for and which thread owns it,
+	 * one line per thread.
+	 * 
+	 * @param deadlocked
+	 *            the ids of the threads to describe, or null to describe all
+	 *            the threads in the last snapshot
+	 */
+	String describeLockGraph(long[] deadlocked) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (deadlocked != null && !contains(deadlocked, threads[i].getId()))
+				continue;
+			sb.append("  ").append(threads[i].getName()).append(' ').append(states[i]);
+			appendLock(sb, getInfo(i));
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static void appendLock(StringBuilder sb, ThreadInfo info) {
+		if (info != null && info.getLockName() != null) {
+			sb.append(" on ").append(info.getLockName());
+			if (info.getLockOwnerName() != null)
+				sb.append(" owned by ").append(info.getLockOwnerName());
+		}
+	}
+
+	static boolean contains(long[] ids, long id) {
+		for (long each : ids)
+			if (each == id)
+				return true;
+		return false;
+	}
+}
@@ -1,5 +1,8 @@
 package edu.umd.cs.mtc;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 
 /**
@@ -10,20 +13,107 @@ import java.lang.reflect.Method;
  */
 public class ThreadedMethod {
 
+	/**
+	 * The type every handle is adapted to: takes the test case and returns
+	 * nothing
+	 */
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Object.class);
+
 	private final String name;
-	private final Method method;
+	private volatile Method method;
+
+	/**
+	 * The generated descriptor that calls the method, or null to call it
+	 * through {@link #method}
+	 */
+	private final TestCaseDescriptor descriptor;
+	private final int index;
+	private final Class<?> testClass;
+
+	/**
+	 * The method bound to a method handle, created by the first call to
+	 * {@link #invoke(Object)}
+	 */
+	private volatile MethodHandle handle;
 
 	public ThreadedMethod(String name, Method method) {
 		this.name = name;
 		this.method = method;
+		this.descriptor = null;
+		this.index = -1;
+		this.testClass = method.getDeclaringClass();
+	}
+
+	/**
+	 * Create a thread method that is called through a generated descriptor.
+	 * 
+	 * @param testClass
+	 *            the class the descriptor was generated for
+	 * @param descriptor
+	 *            the descriptor
+	 * @param index
+	 *            the index of the method in the descriptor
+	 */
+	ThreadedMethod(Class<?> testClass, TestCaseDescriptor descriptor, int index) {
+		this.name = descriptor.getThreadNames()[index];
+		this.descriptor = descriptor;
+		this.index = index;
+		this.testClass = testClass;
 	}
 
 	public String getName() {
 		return name;
 	}
 
+	/**
+	 * @return the method, which is looked up by name if the method is called
+	 *         through a generated {@link TestCaseDescriptor}
+	 */
 	public Method getMethod() {
-		return method;
+		Method m = method;
+		if (m == null) {
+			String methodName = descriptor.getMethodNames()[index];
+			for (Class<?> c = testClass; c != null && m == null; c = c.getSuperclass()) {
+				try {
+					m = c.getDeclaredMethod(methodName);
+				} catch (NoSuchMethodException e) {
+					// try the superclass
+				}
+			}
+			method = m;
+		}
+		return m;
+	}
+
+	/**
+	 * Call this method on the given test case. If the test class has a
+	 * generated {@link TestCaseDescriptor}, the descriptor calls the method
+	 * directly. Otherwise the method is made accessible and bound to a
+	 * {@link MethodHandle} the first time it is called; later calls reuse the
+	 * handle. Unlike {@link Method#invoke(Object, Object...)},
+	 * anything thrown by the method is thrown as is rather than wrapped in an
+	 * {@link java.lang.reflect.InvocationTargetException}.
+	 * 
+	 * @param test
+	 *            the test case to call the method on
+	 * @throws Throwable
+	 *             if the method throws, or cannot be called
+	 * @since 1.02
+	 */
+	public void invoke(Object test) throws Throwable {
+		if (descriptor != null) {
+			descriptor.runThread((MultithreadedTestCase) test, index);
+			return;
+		}
+		MethodHandle h = handle;
+		if (h == null)
+			handle = h = bind();
+		h.invokeExact(test);
+	}
+
+	private MethodHandle bind() throws IllegalAccessException {
+		method.setAccessible(true);
+		return MethodHandles.lookup().unreflect(method).asType(INVOKER_TYPE);
 	}
 
 }
@@ -0,0 +1,75 @@
+package edu.umd.cs.mtc;
+
+/**
+ * The clock ticks registered with {@link MultithreadedTestCase#registerTick(long)}
+ * that should not be skipped. This is a binary min-heap of primitive longs,
+ * so the smallest tick is available in constant time and registering or
+ * pruning ticks does not box them or allocate tree nodes. Duplicate ticks are
+ * allowed; they are pruned together.
+ *
+ * <p>
+ * This class is not thread safe; callers must hold the test case's lock.
+ *
+ * @see MultithreadedTestCase#registerTick(long)
+ * @since 1.02
+ */
+class TickSet {
+
+	private long[] heap = new long[16];
+	private int size;
+
+	void add(long tick) {
+		if (size == heap.length) {
+			long[] newHeap = new long[heap.length * 2];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= tick)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = tick;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the smallest registered tick; only valid if the set is not empty
+	 */
+	long first() {
+		return heap[0];
+	}
+
+	/**
+	 * Remove every tick less than or equal to the given tick, i.e. the ticks
+	 * the clock has already reached.
+	 */
+	void removeUpTo(long tick) {
+		while (size > 0 && heap[0] <= tick)
+			removeFirst();
+	}
+
+	private void removeFirst() {
+		int last = --size;
+		long tick = heap[last];
+		int i = 0;
+		int half = last >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < last && heap[right] < heap[child])
+				child = right;
+			if (tick <= heap[child])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = tick;
+	}
+}
@@ -0,0 +1,127 @@
+package edu.umd.cs.mtc;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The threads blocked in {@link MultithreadedTestCase#waitForTick(long)},
+ * ordered by the tick they are waiting for. When the clock advances to tick
+ * <em>n</em>, only the threads waiting for ticks up to <em>n</em> are
+ * unparked, instead of waking every waiting thread and letting those waiting
+ * for later ticks go back to sleep.
+ *
+ * <p>
+ * This is a binary min-heap stored in parallel arrays. It is not thread safe;
+ * callers must hold the test case's lock.
+ *
+ * @see MultithreadedTestCase#waitForTick(long)
+ * @since 1.02
+ */
+class TickWaitQueue {
+
+	private long[] ticks = new long[8];
+	private Thread[] threads = new Thread[8];
+	private int size;
+
+	/**
+	 * Add a thread that will park until the clock reaches the given tick.
+	 */
+	void add(long tick, Thread thread) {
+		if (size == ticks.length)
+			grow();
+		int i = size++;
+
+		// sift up
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (ticks[parent] <= tick)
+				break;
+			ticks[i] = ticks[parent];
+			threads[i] = threads[parent];
+			i = parent;
+		}
+		ticks[i] = tick;
+		threads[i] = thread;
+	}
+
+	/**
+	 * Remove and unpark every thread waiting for a tick less than or equal to
+	 * the given tick.
+	 *
+	 * @return the number of threads unparked
+	 */
+	int releaseUpTo(long tick) {
+		int released = 0;
+		while (size > 0 && ticks[0] <= tick) {
+			LockSupport.unpark(threads[0]);
+			removeFirst();
+			released++;
+		}
+		return released;
+	}
+
+	/**
+	 * Remove a thread that stopped waiting without being released, e.g.
+	 * because it was interrupted.
+	 */
+	void remove(Thread thread) {
+		for (int i = 0; i < size; i++) {
+			if (threads[i] == thread) {
+				// re-insert the entries after it; this is rare enough not to
+				// bother with a proper heap deletion
+				int n = size;
+				long[] oldTicks = ticks.clone();
+				Thread[] oldThreads = threads.clone();
+				clear();
+				for (int j = 0; j < n; j++)
+					if (j != i)
+						add(oldTicks[j], oldThreads[j]);
+				return;
+			}
+		}
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void clear() {
+		for (int i = 0; i < size; i++)
+			threads[i] = null;
+		size = 0;
+	}
+
+	private void removeFirst() {
+		int last = --size;
+		long tick = ticks[last];
+		Thread thread = threads[last];
+		threads[last] = null;
+		if (last == 0)
+			return;
+
+		// sift down
+		int i = 0;
+		int half = last >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < last && ticks[right] < ticks[child])
+				child = right;
+			if (tick <= ticks[child])
+				break;
+			ticks[i] = ticks[child];
+			threads[i] = threads[child];
+			i = child;
+		}
+		ticks[i] = tick;
+		threads[i] = thread;
+	}
+
+	private void grow() {
+		long[] newTicks = new long[ticks.length * 2];
+		Thread[] newThreads = new Thread[threads.length * 2];
+		System.arraycopy(ticks, 0, newTicks, 0, size);
+		System.arraycopy(threads, 0, newThreads, 0, size);
+		ticks = newTicks;
+		threads = newThreads;
+	}
+}
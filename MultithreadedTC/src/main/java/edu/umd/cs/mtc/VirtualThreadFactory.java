@@ -0,0 +1,67 @@
+package edu.umd.cs.mtc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on JVMs that have them. This library is compiled
+ * for older JVMs, so the <code>Thread.ofVirtual()</code> builder is looked up
+ * with reflection.
+ *
+ * @see VirtualThreads
+ * @since 1.02
+ */
+class VirtualThreadFactory {
+
+	private static final Method ofVirtual;
+	private static final Method name;
+	private static final Method unstarted;
+
+	static {
+		Method o = null, n = null, u = null;
+		try {
+			o = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = o.getReturnType();
+			n = builder.getMethod("name", String.class);
+			u = builder.getMethod("unstarted", Runnable.class);
+
+			// fails if virtual threads are a preview feature that isn't enabled
+			o.invoke(null);
+		} catch (Throwable e) {
+			o = null;
+		}
+		ofVirtual = o;
+		name = n;
+		unstarted = u;
+	}
+
+	/**
+	 * @return true if this JVM can create virtual threads
+	 */
+	static boolean isSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Create a new, unstarted virtual thread.
+	 *
+	 * @param task
+	 *            what the thread runs
+	 * @param threadName
+	 *            the name of the thread
+	 * @throws UnsupportedOperationException
+	 *             if this JVM can't create virtual threads
+	 */
+	static Thread newThread(Runnable task, String threadName) {
+		if (!isSupported())
+			throw new UnsupportedOperationException("Virtual threads are not supported");
+		try {
+			Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+			return (Thread) unstarted.invoke(builder, task);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedOperationException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package edu.umd.cs.mtc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to indicate that the thread methods of a
+ * {@link MultithreadedTestCase} should run on virtual threads instead of
+ * platform threads. This makes it practical to run tests with thousands of
+ * threads. On a JVM without virtual threads, platform threads are used.
+ * 
+ * @see MultithreadedTestCase#setVirtualThreads(boolean)
+ * @see TestFramework#VIRTUALTHREADS_KEY
+ * @since 1.02
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+@Inherited
+public @interface VirtualThreads {
+}
@@ -0,0 +1,216 @@
+package edu.umd.cs.mtc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of reusable threads for running a {@link MultithreadedTestCase} many
+ * times. Instead of creating a new thread group, a new thread for every thread
+ * method and a new clock thread on every run, {@link TestFramework} hands the
+ * work of each run to the same idle workers, which wait on this pool between
+ * runs. The method workers live in a single "MTC-Threads" group, and the clock
+ * worker lives outside of it. If the test case has a
+ * {@link TestThreadFactory}, the method workers are made by the factory, so
+ * that pooled threads of any kind can be used, and keep the names the
+ * factory gave them.
+ *
+ * <p>
+ * Every run still starts with fresh per-run state: each worker is renamed
+ * after the method it runs, and registers with the test case as a new thread
+ * would. If a run fails, its threads may be stuck, so the pool is
+ * {@link #reset()} and the next run starts with new workers.
+ *
+ * @see TestFramework#runManyTimes(MultithreadedTestCase, int)
+ * @see MultithreadedTestCase#setPooledThreads(boolean)
+ * @since 1.02
+ */
+class WorkerPool {
+
+	private ThreadGroup threadGroup = new ThreadGroup("MTC-Threads");
+
+	/**
+	 * The factory making the method workers, or null for daemon platform
+	 * threads
+	 */
+	private final TestThreadFactory factory;
+
+	private final List<Worker> workers = new ArrayList<Worker>();
+
+	private Worker clock;
+
+	/**
+	 * The number of tasks handed out in the current run that have not
+	 * completed yet. Guarded by this.
+	 */
+	private int running;
+
+	/**
+	 * @param factory
+	 *            the factory making the method workers, or null for daemon
+	 *            platform threads
+	 */
+	WorkerPool(TestThreadFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @return the thread group containing the method workers
+	 */
+	ThreadGroup getThreadGroup() {
+		return threadGroup;
+	}
+
+	/**
+	 * Get the index-th method worker, creating it if necessary, and name it
+	 * for the next run. The worker does nothing until it is given a task with
+	 * {@link #execute(Thread, Runnable)}.
+	 */
+	synchronized Thread getWorker(int index, String name) {
+		while (workers.size() <= index)
+			workers.add(new Worker(threadGroup, name, factory));
+		Worker worker = workers.get(index);
+		if (factory == null)
+			worker.thread.setName(name);
+		return worker.thread;
+	}
+
+	/**
+	 * Get the clock worker, creating it if necessary.
+	 */
+	synchronized Thread getClock() {
+		if (clock == null)
+			clock = new Worker(null, "Tick thread", null);
+		return clock.thread;
+	}
+
+	/**
+	 * Hand a task to an idle worker obtained from this pool.
+	 */
+	synchronized void execute(Thread thread, Runnable task) {
+		Worker worker = workerOf(thread);
+		if (worker.task != null)
+			throw new IllegalStateException(thread.getName() + " is busy");
+		worker.task = task;
+		running++;
+		if (!thread.isAlive())
+			thread.start();
+		else
+			notifyAll();
+	}
+
+	private Worker workerOf(Thread thread) {
+		if (clock != null && clock.thread == thread)
+			return clock;
+		for (Worker worker : workers)
+			if (worker.thread == thread)
+				return worker;
+		throw new IllegalArgumentException(thread.getName() + " is not a worker of this pool");
+	}
+
+	/**
+	 * Wait until every task handed out since the last run has completed, or an
+	 * error has been recorded for the run.
+	 *
+	 * @param error
+	 *            the run's error array
+	 * @throws InterruptedException
+	 *             if the clock thread interrupts the waiting thread
+	 */
+	synchronized void awaitRun(Throwable[] error) throws InterruptedException {
+		while (running > 0 && error[0] == null)
+			wait();
+	}
+
+	/**
+	 * Discard all the workers, which may be stuck after a failed run, and
+	 * start over with a new thread group. Busy workers are interrupted, and
+	 * this waits up to {@link TestFramework#CANCEL_TIMEOUT} for them to finish
+	 * their tasks; workers that don't are abandoned.
+	 */
+	void reset() {
+		List<Thread> busy = new ArrayList<Thread>();
+		synchronized (this) {
+			List<Worker> all = new ArrayList<Worker>(workers);
+			if (clock != null)
+				all.add(clock);
+			workers.clear();
+			clock = null;
+			running = 0;
+			threadGroup = new ThreadGroup("MTC-Threads");
+
+			Thread currentThread = Thread.currentThread();
+			for (Worker worker : all) {
+				worker.retired = true;
+				if (worker.thread != currentThread && worker.thread.isAlive()) {
+					worker.thread.interrupt();
+					if (worker.task != null)
+						busy.add(worker.thread);
+				}
+			}
+			notifyAll();
+		}
+
+		// don't hold the pool's monitor, the workers need it to finish
+		if (!busy.isEmpty())
+			TestFramework.joinAll(busy, TestFramework.CANCEL_TIMEOUT);
+	}
+
+	/**
+	 * Let all the workers exit.
+	 */
+	void shutdown() {
+		reset();
+	}
+
+	private class Worker implements Runnable {
+
+		final Thread thread;
+
+		/** The task to run next, or null if idle. Guarded by the pool. */
+		Runnable task;
+
+		/** Set when the worker has been discarded. Guarded by the pool. */
+		boolean retired;
+
+		Worker(ThreadGroup group, String name, TestThreadFactory factory) {
+			if (factory != null) {
+				thread = factory.newThread(group, this, name);
+			} else {
+				thread = new Thread(group == null ? Thread.currentThread().getThreadGroup() : group,
+						this, name);
+				thread.setDaemon(true);
+			}
+		}
+
+		public void run() {
+			while (true) {
+				Runnable r;
+				synchronized (WorkerPool.this) {
+					while (task == null && !retired) {
+						try {
+							WorkerPool.this.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					if (retired)
+						return;
+					r = task;
+				}
+
+				// don't let an interrupt from a previous run leak into this one
+				Thread.interrupted();
+				try {
+					r.run();
+				} finally {
+					synchronized (WorkerPool.this) {
+						task = null;
+						if (!retired)
+							running--;
+						WorkerPool.this.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package sanity;
+
+import edu.umd.cs.mtc.MultithreadedTestCase;
+import edu.umd.cs.mtc.TestCaseDescriptor;
+import edu.umd.cs.mtc.TestFramework;
+import edu.umd.cs.mtc.ThreadedMethod;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the descriptors generated by
+ * {@link edu.umd.cs.mtc.DescriptorProcessor}. The build runs the processor on
+ * this class only, so the other tests run their thread methods through
+ * reflection.
+ */
+public class DescriptorTest extends TestCase {
+
+	/**
+	 * Test that a descriptor is generated for a test whose thread methods can
+	 * be called directly, and that it is used to run the test.
+	 */
+	class TestWithDescriptor extends MultithreadedTestCase {
+		volatile int count = 0;
+
+		public void thread1() {
+			count++;
+		}
+
+		void thread2() {
+			count++;
+		}
+	}
+
+	public void testWithDescriptor() throws Throwable {
+		Class<?> descriptor = Class.forName(TestWithDescriptor.class.getName() + TestCaseDescriptor.SUFFIX);
+		assertTrue(TestCaseDescriptor.class.isAssignableFrom(descriptor));
+
+		TestWithDescriptor test = new TestWithDescriptor();
+		ThreadedMethod[] methods = test.getThreadedMethods();
+		assertEquals(2, methods.length);
+		for (ThreadedMethod method : methods) {
+			// looked up lazily
+			assertEquals(method.getName(), method.getMethod().getName());
+		}
+		TestFramework.runOnce(test);
+		assertEquals(2, test.count);
+	}
+
+	/**
+	 * Test that no descriptor is generated for a test with a private thread
+	 * method, and that it still runs through reflection.
+	 */
+	class TestWithoutDescriptor extends MultithreadedTestCase {
+		volatile int count = 0;
+
+		public void thread1() {
+			count++;
+		}
+
+		@SuppressWarnings("unused")
+		private void thread2() {
+			count++;
+		}
+	}
+
+	public void testWithoutDescriptor() throws Throwable {
+		try {
+			Class.forName(TestWithoutDescriptor.class.getName() + TestCaseDescriptor.SUFFIX);
+			fail("Descriptor generated for private thread method");
+		} catch (ClassNotFoundException e) {
+			// expected
+		}
+
+		TestWithoutDescriptor test = new TestWithoutDescriptor();
+		TestFramework.runOnce(test);
+		assertEquals(2, test.count);
+	}
+
+	/**
+	 * Test that a descriptor that exists but can't be created is reported
+	 * rather than silently replaced by reflection. The private thread method
+	 * keeps the processor from generating a descriptor over this one.
+	 */
+	static class TestWithBrokenDescriptor extends MultithreadedTestCase {
+		public void thread1() {
+		}
+
+		@SuppressWarnings("unused")
+		private void thread2() {
+		}
+
+		public static class $MtcDescriptor implements TestCaseDescriptor {
+			public $MtcDescriptor() {
+				throw new UnsupportedOperationException("broken");
+			}
+
+			public String[] getThreadNames() {
+				return new String[0];
+			}
+
+			public String[] getMethodNames() {
+				return new String[0];
+			}
+
+			public void runThread(MultithreadedTestCase test, int index) {
+			}
+
+			public void runAfterThreads(MultithreadedTestCase test) {
+			}
+		}
+	}
+
+	public void testBrokenDescriptor() throws Throwable {
+		try {
+			new TestWithBrokenDescriptor().getThreadedMethods();
+			fail("Broken descriptor ignored");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(TestCaseDescriptor.SUFFIX));
+			assertTrue(e.getCause() instanceof UnsupportedOperationException);
+		}
+	}
+}
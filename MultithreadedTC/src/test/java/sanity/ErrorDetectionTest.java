@@ -1,5 +1,9 @@
 package sanity;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -8,6 +12,8 @@ import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
 import edu.umd.cs.mtc.MultithreadedJUnit4TestCase;
+import edu.umd.cs.mtc.MultithreadedTestCase;
+import edu.umd.cs.mtc.TestFramework;
 import edu.umd.cs.mtc.Threaded;
 
 /**
@@ -89,5 +95,100 @@ public class ErrorDetectionTest {
 			// this space left intentionally blank
 	    }
     }
+    
+    
+    
+    static class MonitorDeadlock extends MultithreadedTestCase {
+    	final Object lockA = new Object();
+    	final Object lockB = new Object();
+    	
+    	public void threadA() {
+    		synchronized (lockA) {
+    			waitForTick(1);
+    			synchronized (lockB) {}
+    		}
+    	}
+    	
+    	public void threadB() {
+    		synchronized (lockB) {
+    			waitForTick(1);
+    			synchronized (lockA) {}
+    		}
+    	}
+    }
+    
+    /**
+     * Tests that a lock cycle is reported right away, along with the locks
+     * involved, rather than after the clock thread gives up waiting.
+     */
+    public static class TestLockCycleReported {
+    	static final int CLOCK_PERIOD = 200;
+    	
+    	@Test
+    	public void testLockCycleReported() throws Throwable {
+    		long start = System.currentTimeMillis();
+    		try {
+    			TestFramework.runOnce(new MonitorDeadlock(), CLOCK_PERIOD, null);
+    			fail("Deadlock not detected");
+    		} catch (IllegalStateException e) {
+    			assertTrue(e.getMessage(), e.getMessage().startsWith("Apparent deadlock"));
+    			assertTrue(e.getMessage(), e.getMessage().contains("Lock cycle:"));
+    			assertTrue(e.getMessage(), e.getMessage().contains("threadA BLOCKED on java.lang.Object"));
+    			assertTrue(e.getMessage(), e.getMessage().contains("owned by threadA"));
+    		}
+    		
+    		// the heuristic alone waits for 50 clock periods
+    		long elapsed = System.currentTimeMillis() - start;
+    		assertTrue("Took " + elapsed + "ms", elapsed < 25 * CLOCK_PERIOD);
+    	}
+    }
+    
+    static class DeadlockWhileSleeping extends MultithreadedTestCase {
+    	final Object lockA = new Object();
+    	final Object lockB = new Object();
+    	volatile boolean finished;
+    	
+    	public void threadA() {
+    		synchronized (lockA) {
+    			waitForTick(1);
+    			synchronized (lockB) {}
+    		}
+    	}
+    	
+    	public void threadB() {
+    		synchronized (lockB) {
+    			waitForTick(1);
+    			synchronized (lockA) {}
+    		}
+    	}
+    	
+    	public void threadC() {
+    		try {
+    			for (int i = 0; i < 100; i++)
+    				Thread.sleep(100);
+    		} catch (InterruptedException e) {
+    			return;
+    		}
+    		finished = true;
+    	}
+    }
+    
+    /**
+     * Tests that a lock cycle is reported while another thread is still
+     * sleeping, rather than once every thread is blocked.
+     */
+    public static class TestLockCycleReportedWhileOthersRun {
+    	@Test
+    	public void testLockCycleReportedWhileOthersRun() throws Throwable {
+    		DeadlockWhileSleeping test = new DeadlockWhileSleeping();
+    		try {
+    			TestFramework.runOnce(test);
+    			fail("Deadlock not detected");
+    		} catch (IllegalStateException e) {
+    			assertTrue(e.getMessage(), e.getMessage().contains("Lock cycle:"));
+    		}
+    		assertFalse("Deadlock only detected after threadC finished", test.finished);
+    	}
+    }
 
 }
@@ -14,6 +14,7 @@ import edu.umd.cs.mtc.Multithreaded;
 import edu.umd.cs.mtc.MultithreadedJUnit4TestCase;
 import edu.umd.cs.mtc.MultithreadedTestCase;
 import edu.umd.cs.mtc.TestFramework;
+import edu.umd.cs.mtc.TestThreadFactories;
 import edu.umd.cs.mtc.Threaded;
 
 import static org.junit.Assert.*;
@@ -136,6 +137,29 @@ public class MultithreadedJUnit4TestCaseTest {
 		}
 	}
 	
+	public static class ThreadFactoryAnnotationTest extends MultithreadedJUnit4TestCase {
+		private static AtomicInteger integer = new AtomicInteger();
+		
+		public static class NamingThreadFactory extends TestThreadFactories.Platform {
+			@Override
+			public Thread newThread(ThreadGroup group, Runnable task, String name) {
+				return super.newThread(group, task, "named-" + name);
+			}
+		}
+		
+		@Threaded
+		public void thread() {
+			assertEquals("named-thread", Thread.currentThread().getName());
+			integer.incrementAndGet();
+		}
+		
+		@Test
+		@Multithreaded(times = 3, threadFactory = NamingThreadFactory.class)
+		public void testThreadFactoryAnnotation() {
+			assertEquals(3, integer.get());
+		}
+	}
+	
 	public static class AfterThreadsAnnotationTest extends MultithreadedJUnit4TestCase {
 		private AtomicInteger integer;
 		
@@ -1,7 +1,34 @@
 package sanity;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.umd.cs.mtc.ExplorationReport;
+import edu.umd.cs.mtc.FuzzReport;
 import edu.umd.cs.mtc.MultithreadedTestCase;
+import edu.umd.cs.mtc.MultithreadedTestCaseFactory;
+import edu.umd.cs.mtc.RunSeedException;
+import edu.umd.cs.mtc.Schedule;
+import edu.umd.cs.mtc.ScheduleStrategies;
 import edu.umd.cs.mtc.TestFramework;
+import edu.umd.cs.mtc.TestThreadFactories;
+import edu.umd.cs.mtc.ThreadedMethod;
+import edu.umd.cs.mtc.VirtualThreads;
+import junit.framework.AssertionFailedError;
 import junit.framework.TestCase;
 
 /**
@@ -26,5 +53,885 @@ public class TestFrameworkTest extends TestCase {
     	assertEquals(test.count, 3);
     }
 
+    /**
+     * Test that thread methods are only looked up once per class, and that
+     * callers get their own copy of the array.
+     */
+    public void testThreadedMethodsCached() {
+    	ThreadedMethod[] first = new TestRunThreeTimes().getThreadedMethods();
+    	ThreadedMethod[] second = new TestRunThreeTimes().getThreadedMethods();
+    	assertEquals(1, first.length);
+    	assertEquals("thread1", first[0].getName());
+    	assertNotSame(first, second);
+    	assertSame(first[0], second[0]);
+    }
+
+	/**
+	 * Test that an exception thrown by a thread method is reported as is, and
+	 * not wrapped by the reflection used to call the method.
+	 */
+	class TestUnwrappedException extends MultithreadedTestCase {
+		public void thread1() throws IOException {
+			throw new IOException("thread1");
+		}
+	}
+
+    public void testUnwrappedException() throws Throwable {
+    	try {
+    		TestFramework.runOnce(new TestUnwrappedException());
+    		fail("Exception not reported");
+    	} catch (IOException e) {
+    		assertEquals("thread1", e.getMessage());
+    	}
+    }
+
+	/**
+	 * Test that pooled runs reuse the same threads, and that each run still
+	 * starts with a fresh clock.
+	 */
+	class TestPooledThreads extends MultithreadedTestCase {
+		Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		volatile int count = 0;
+
+		public void thread1() {
+			threads.add(Thread.currentThread());
+			assertEquals("thread1", Thread.currentThread().getName());
+			assertSame(Thread.currentThread(), getThread(1));
+			assertTick(0);
+			waitForTick(1);
+			count++;
+		}
+
+		public void thread2() {
+			threads.add(Thread.currentThread());
+			skipNextWait(); // must not leak into the next run
+			waitForTick(2);
+		}
+	}
+
+    public void testPooledThreads() throws Throwable {
+    	TestPooledThreads test = new TestPooledThreads();
+    	test.setPooledThreads(true);
+    	TestFramework.runManyTimes(test, 5);
+    	assertEquals(5, test.count);
+    	assertEquals(2, test.threads.size());
+    }
+
+	/**
+	 * Test that a failing pooled run is reported, and that later runs get new
+	 * threads.
+	 */
+	class TestPooledFailure extends MultithreadedTestCase {
+		volatile int count = 0;
+
+		public void thread1() {
+			if (++count % 2 == 0)
+				throw new IllegalStateException("run " + count);
+		}
+	}
+
+    public void testPooledFailure() throws Throwable {
+    	TestPooledFailure test = new TestPooledFailure();
+    	test.setPooledThreads(true);
+    	int[] failures = new int[1];
+    	try {
+    		TestFramework.runInstrumentedManyTimes(test, 6, failures);
+    		fail("Failure not reported");
+    	} catch (IllegalStateException e) {
+    		assertEquals("run 2", e.getMessage());
+    	}
+    	assertEquals(6, test.count);
+    	assertEquals(3, failures[0]);
+    }
+
+	/**
+	 * Test that when one thread fails, the others are cancelled at once
+	 * instead of being stopped one after another.
+	 */
+	class TestFastCancellation extends MultithreadedTestCase {
+		final Object o = new Object();
+
+		public void thread1() {
+			waitForTick(1);
+			throw new IllegalStateException("thread1");
+		}
+
+		public void thread2() { waitForever(); }
+		public void thread3() { waitForever(); }
+		public void thread4() { waitForever(); }
+		public void thread5() { waitForever(); }
+		public void thread6() { waitForTick(10); }
+		public void thread7() { waitForTick(10); }
+
+		void waitForever() {
+			synchronized (o) {
+				while (true)
+					waitOn(o);
+			}
+		}
+	}
+
+    public void testFastCancellation() throws Throwable {
+    	TestFastCancellation test = new TestFastCancellation();
+    	long start = System.currentTimeMillis();
+    	try {
+    		TestFramework.runOnce(test);
+    		fail("Failure not reported");
+    	} catch (IllegalStateException e) {
+    		assertEquals("thread1", e.getMessage());
+    	}
+    	long elapsed = System.currentTimeMillis() - start;
+    	// a thread left to time out of waitOn would take 3 seconds
+    	assertTrue("Took " + elapsed + "ms", elapsed < 2500);
+    	for (int i = 2; i <= 7; i++)
+    		assertFalse(test.getThread(i) + " still running", test.getThread(i).isAlive());
+    }
+
+	/**
+	 * Test that a run cancelled by the clock thread does not cancel the next
+	 * run of the same test case.
+	 */
+	class TestRunAfterCancellation extends MultithreadedTestCase {
+		volatile int count = 0;
+
+		public void thread1() throws InterruptedException {
+			if (++count == 1)
+				new Semaphore(0).acquire(); // deadlock
+			waitForTick(1);
+		}
+
+		public void thread2() {
+			waitForTick(1);
+		}
+	}
+
+    public void testRunAfterCancellation() throws Throwable {
+    	TestRunAfterCancellation test = new TestRunAfterCancellation();
+    	int[] failures = new int[1];
+    	try {
+    		TestFramework.runInstrumentedManyTimes(test, 3, failures);
+    		fail("Failure not reported");
+    	} catch (IllegalStateException e) {
+    		assertTrue(e.getMessage(), e.getMessage().startsWith("Apparent deadlock"));
+    	}
+    	assertEquals(3, test.count);
+    	assertEquals(1, failures[0]);
+    }
+
+	/**
+	 * Test that a test with many replicated consumer threads runs on virtual
+	 * threads, or on platform threads if the JVM has no virtual threads.
+	 */
+	@VirtualThreads
+	class TestVirtualThreads extends MultithreadedTestCase {
+		static final int CONSUMERS = 500;
+		final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+		final AtomicInteger consumed = new AtomicInteger();
+		final Set<Boolean> virtual = Collections.synchronizedSet(new HashSet<Boolean>());
+
+		public void threadProducer() {
+			waitForTick(1);
+			for (int i = 0; i < CONSUMERS; i++)
+				queue.add(i);
+		}
+
+		public void consumer() throws Exception {
+			virtual.add(isVirtual(Thread.currentThread()));
+			assertTick(0);
+			queue.take();
+			assertTick(1);
+			consumed.incrementAndGet();
+		}
+
+		@Override
+		public ThreadedMethod[] getThreadedMethods() {
+			ThreadedMethod[] methods = super.getThreadedMethods();
+			List<ThreadedMethod> all = new ArrayList<ThreadedMethod>(Arrays.asList(methods));
+			try {
+				Method consumer = TestVirtualThreads.class.getDeclaredMethod("consumer");
+				for (int i = 0; i < CONSUMERS; i++)
+					all.add(new ThreadedMethod("consumer" + i, consumer));
+			} catch (NoSuchMethodException e) {
+				throw new AssertionError(e);
+			}
+			return all.toArray(new ThreadedMethod[all.size()]);
+		}
+	}
+
+	static boolean isVirtual(Thread t) {
+		try {
+			return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+    public void testVirtualThreads() throws Throwable {
+    	TestVirtualThreads test = new TestVirtualThreads();
+    	assertTrue(test.isVirtualThreads());
+    	TestFramework.runOnce(test);
+    	assertEquals(TestVirtualThreads.CONSUMERS, test.consumed.get());
+    	boolean supported = true;
+    	try {
+    		Thread.class.getMethod("ofVirtual");
+    	} catch (NoSuchMethodException e) {
+    		supported = false;
+    	}
+    	if (supported)
+    		assertEquals(Collections.singleton(Boolean.TRUE), test.virtual);
+    	else
+    		assertEquals(Collections.singleton(Boolean.FALSE), test.virtual);
+    }
+
+	/**
+	 * Test that parallel runs use independent test cases, overlap in time, and
+	 * report failures like {@link TestFramework#runInstrumentedManyTimes}.
+	 */
+	final AtomicInteger created = new AtomicInteger();
+	final AtomicInteger running = new AtomicInteger();
+	final AtomicInteger maxRunning = new AtomicInteger();
+
+	class TestParallelRuns extends MultithreadedTestCase {
+		final int id = created.incrementAndGet();
+		int ticks = 0;
+
+		public void thread1() throws InterruptedException {
+			int now = running.incrementAndGet();
+			while (maxRunning.get() < now && !maxRunning.compareAndSet(maxRunning.get(), now))
+				;
+			Thread.sleep(50);
+			ticks++;
+			waitForTick(1);
+			running.decrementAndGet();
+			if (id % 3 == 0)
+				throw new IllegalStateException("test " + id);
+		}
+
+		public void thread2() {
+			assertTick(0);
+			waitForTick(1);
+		}
+
+		@Override
+		public void finish() {
+			assertEquals(1, ticks);
+		}
+	}
+
+    public void testParallelRuns() throws Throwable {
+    	int[] failures = new int[1];
+    	try {
+    		TestFramework.runManyTimesInParallel(new MultithreadedTestCaseFactory() {
+    			public MultithreadedTestCase newTestCase() {
+    				return new TestParallelRuns();
+    			}
+    		}, 12, 4, failures);
+    		fail("Failure not reported");
+    	} catch (IllegalStateException e) {
+    		assertTrue(e.getMessage(), e.getMessage().startsWith("test "));
+    	}
+    	assertEquals(12, created.get());
+    	assertEquals(4, failures[0]);
+    	assertTrue("Runs did not overlap", maxRunning.get() > 1);
+    }
+
+	/**
+	 * Test that thread methods run on threads from the test case's factory.
+	 */
+	static final AtomicInteger factoryThreads = new AtomicInteger();
+
+	public static class CountingThreadFactory extends TestThreadFactories.StackSize {
+		public CountingThreadFactory() {
+			super(256 * 1024);
+		}
+
+		@Override
+		public Thread newThread(ThreadGroup group, Runnable task, String name) {
+			factoryThreads.incrementAndGet();
+			return super.newThread(group, task, "counted-" + name);
+		}
+	}
+
+	class TestFactoryThreads extends MultithreadedTestCase {
+		public void thread1() {
+			assertEquals("counted-thread1", Thread.currentThread().getName());
+			waitForTick(1);
+		}
+
+		public void thread2() {
+			assertTick(0);
+			waitForTick(1);
+		}
+	}
+
+    public void testThreadFactory() throws Throwable {
+    	factoryThreads.set(0);
+    	TestFactoryThreads test = new TestFactoryThreads();
+    	test.setThreadFactory(new CountingThreadFactory());
+    	TestFramework.runManyTimes(test, 3);
+    	assertEquals(6, factoryThreads.get());
+    	
+    	// pooled threads are made by the factory once
+    	factoryThreads.set(0);
+    	test.setPooledThreads(true);
+    	TestFramework.runManyTimes(test, 3);
+    	assertEquals(2, factoryThreads.get());
+    }
+
+	/**
+	 * Test that the clock waits for a thread registered by the test.
+	 */
+	class TestRegisteredThread extends MultithreadedTestCase {
+		volatile boolean helperDone;
+
+		public void thread1() {
+			// outside the run's thread group, so the clock only sees it if registered
+			Thread helper = new Thread(new ThreadGroup("helpers"), "helper") {
+				@Override
+				public void run() {
+					// stay runnable for a while, the clock must not tick meanwhile
+					long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+					while (System.nanoTime() < end)
+						;
+					helperDone = true;
+				}
+			};
+			helper.setDaemon(true);
+			registerThread(helper);
+			helper.start();
+			waitForTick(1);
+			assertTrue("Clock ticked while the helper was running", helperDone);
+		}
+	}
+
+    public void testRegisteredThread() throws Throwable {
+    	TestFramework.runOnce(new TestRegisteredThread(), 10, null);
+    }
+
+	/**
+	 * Test that threads released by a spinning barrier, with jitter, all run
+	 * their methods before the clock first ticks.
+	 */
+	class TestSpinStart extends MultithreadedTestCase {
+		final AtomicInteger started = new AtomicInteger();
+
+		public void thread1() { arrive(); }
+		public void thread2() { arrive(); }
+		public void thread3() { arrive(); }
+		public void thread4() { arrive(); }
+
+		private void arrive() {
+			assertTick(0);
+			started.incrementAndGet();
+			waitForTick(1);
+			assertEquals(4, started.get());
+		}
+
+		@Override
+		public void initialize() {
+			started.set(0);
+		}
+	}
+
+    public void testSpinStart() throws Throwable {
+    	TestSpinStart test = new TestSpinStart();
+    	test.setSpinStart(true);
+    	test.setStartJitter(TimeUnit.MICROSECONDS.toNanos(50));
+    	assertTrue(test.isSpinStart());
+    	TestFramework.runManyTimes(test, 20);
+    	
+    	try {
+    		test.setStartJitter(-1);
+    		fail("Negative jitter accepted");
+    	} catch (IllegalArgumentException e) {
+    		// expected
+    	}
+    }
+
+	/**
+	 * Test that the random choices of a run only depend on its seed, and that
+	 * a failing run can be replayed from the seed attached to its failure.
+	 */
+	class TestSeededRuns extends MultithreadedTestCase {
+		volatile long value1, value2;
+
+		public void thread1() {
+			value1 = getRandom().nextLong();
+			if (getRandom().nextInt(8) == 0)
+				fail("Unlucky " + value1);
+		}
+
+		public void thread2() {
+			value2 = getRandom().nextLong();
+			mayYield();
+		}
+	}
+
+    public void testSeededRuns() throws Throwable {
+    	TestSeededRuns test = new TestSeededRuns();
+    	TestFramework.runOnce(test, null, null, 1L);
+    	assertEquals(1L, test.getRunSeed());
+    	long value1 = test.value1, value2 = test.value2;
+    	assertTrue(value1 != value2);
+    	TestFramework.runOnce(test, null, null, 1L);
+    	assertEquals(value1, test.value1);
+    	assertEquals(value2, test.value2);
+    	
+    	String message = null;
+    	Long seed = null;
+    	try {
+    		TestFramework.runManyTimes(test, 1000, null, null, 42L);
+    		fail("No run failed");
+    	} catch (AssertionFailedError e) {
+    		message = e.getMessage();
+    		seed = RunSeedException.getSeed(e);
+    	}
+    	assertNotNull("Seed not reported", seed);
+    	try {
+    		TestFramework.runOnce(test, null, null, seed);
+    		fail("Replay did not fail");
+    	} catch (AssertionFailedError e) {
+    		assertEquals(message, e.getMessage());
+    	}
+    }
+
+	/**
+	 * Test that a controlled run interleaves the threads at the yield points
+	 * only, and the same way every time it is run with the same seed.
+	 */
+	class TestControlledScheduling extends MultithreadedTestCase {
+		final ReentrantLock lock = new ReentrantLock();
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		int locked, unlocked;
+
+		public void thread1() { work("a"); }
+		public void thread2() { work("b"); }
+
+		public void thread3() {
+			waitForTick(2);
+			order.add("tick");
+			assertEquals(6, locked);
+		}
+
+		private void work(String name) {
+			for (int i = 0; i < 3; i++) {
+				lockOn(lock);
+				try {
+					int value = locked;
+					mayYield();
+					locked = value + 1;
+					order.add(name + i);
+				} finally {
+					unlockOn(lock);
+				}
+				int value = unlocked;
+				mayYield();
+				unlocked = value + 1;
+			}
+			waitForTick(1);
+		}
+
+		@Override
+		public void initialize() {
+			order.clear();
+			locked = unlocked = 0;
+		}
+
+		@Override
+		public void finish() {
+			assertEquals(6, locked);
+			assertEquals("tick", order.get(order.size() - 1));
+		}
+	}
+
+    public void testControlledScheduling() throws Throwable {
+    	TestControlledScheduling test = new TestControlledScheduling();
+    	test.setScheduleStrategy(new ScheduleStrategies.RandomWalk());
+    	Set<List<String>> orders = new HashSet<List<String>>();
+    	Set<Integer> lost = new HashSet<Integer>();
+    	for (long seed = 0; seed < 20; seed++) {
+    		TestFramework.runOnce(test, null, null, seed);
+    		List<String> order = new ArrayList<String>(test.order);
+    		int unlocked = test.unlocked;
+    		TestFramework.runOnce(test, null, null, seed);
+    		assertEquals(order, test.order);
+    		assertEquals(unlocked, test.unlocked);
+    		orders.add(order);
+    		lost.add(6 - unlocked);
+    	}
+    	assertTrue("Threads never interleaved", orders.size() > 1);
+    	assertTrue("No update was ever lost", lost.size() > 1);
+    }
+
+	/**
+	 * Test that a controlled thread blocking outside the yield points lets
+	 * the clock advance once the supervisor sees it blocked.
+	 */
+	class TestControlledWait extends MultithreadedTestCase {
+		final Object monitor = new Object();
+		boolean ready;
+
+		public void thread1() {
+			synchronized (monitor) {
+				while (!ready)
+					waitOn(monitor);
+			}
+			assertTick(1);
+		}
+
+		public void thread2() {
+			waitForTick(1);
+			synchronized (monitor) {
+				ready = true;
+				monitor.notifyAll();
+			}
+		}
+
+		@Override
+		public void initialize() {
+			ready = false;
+		}
+	}
+
+    public void testControlledWait() throws Throwable {
+    	TestControlledWait test = new TestControlledWait();
+    	test.setScheduleStrategy(new ScheduleStrategies.RandomWalk());
+    	TestFramework.runManyTimes(test, 3);
+    }
+
+	/**
+	 * Test that PCT only finds a bug needing a preemption in the middle of a
+	 * thread method if its depth allows a priority change.
+	 */
+	class TestPCT extends MultithreadedTestCase {
+		volatile int state, observed;
+
+		public void thread1() {
+			for (int i = 0; i < 4; i++)
+				mayYield();
+			state = 1;
+			mayYield();
+			state = 2;
+		}
+
+		public void thread2() {
+			mayYield();
+			observed = state;
+		}
+
+		@Override
+		public void initialize() {
+			state = observed = 0;
+		}
+
+		@Override
+		public void finish() {
+			assertTrue("Saw the intermediate state", observed != 1);
+		}
+	}
+
+    public void testPCT() throws Throwable {
+    	TestPCT test = new TestPCT();
+    	test.setScheduleStrategy(new ScheduleStrategies.PCT(1));
+    	TestFramework.runManyTimes(test, 50, null, null, 1L);
+    	
+    	test.setScheduleStrategy(new ScheduleStrategies.PCT(2, 10));
+    	Long seed = null;
+    	try {
+    		TestFramework.runManyTimes(test, 200, null, null, 1L);
+    		fail("PCT did not find the bug");
+    	} catch (AssertionFailedError e) {
+    		seed = RunSeedException.getSeed(e);
+    		RunSeedException.getScheduleFile(e).delete();
+    	}
+    	try {
+    		TestFramework.runOnce(test, null, null, seed);
+    		fail("Replay did not fail");
+    	} catch (AssertionFailedError e) {
+    		RunSeedException.getScheduleFile(e).delete();
+    	}
+    	
+    	try {
+    		new ScheduleStrategies.PCT(0);
+    		fail("Depth 0 accepted");
+    	} catch (IllegalArgumentException e) {
+    		// expected
+    	}
+    }
+
+    private static void assertUnreadable(byte[] bytes) throws IOException {
+    	File file = File.createTempFile("corrupt", ".schedule");
+    	try {
+    		Files.write(file.toPath(), bytes);
+    		Schedule.read(file);
+    		fail("Corrupt schedule read");
+    	} catch (IOException e) {
+    		// expected
+    	} finally {
+    		file.delete();
+    	}
+    }
+
+    /**
+     * Test that a failed controlled run writes its schedule, that replaying
+     * it fails the same way, whatever the strategy, and that a damaged
+     * schedule file is rejected.
+     */
+    public void testScheduleReplay() throws Throwable {
+    	TestPCT test = new TestPCT();
+    	test.setScheduleStrategy(new ScheduleStrategies.RandomWalk());
+    	String message = null;
+    	File file = null;
+    	try {
+    		TestFramework.runManyTimes(test, 200, null, null, 5L);
+    		fail("No run failed");
+    	} catch (AssertionFailedError e) {
+    		message = e.getMessage();
+    		file = RunSeedException.getScheduleFile(e);
+    	}
+    	assertNotNull("Schedule not written", file);
+    	try {
+    		Schedule schedule = Schedule.read(file);
+    		assertEquals(2, schedule.getThreadCount());
+    		assertTrue(schedule.getChoices().length > 2);
+    		assertTrue("Schedule file too large", file.length() < 64 + schedule.size() * 2);
+    		
+    		// a corrupt or truncated file is reported as such
+    		byte[] bytes = Files.readAllBytes(file.toPath());
+    		byte[] hugeCount = Arrays.copyOf(bytes, bytes.length);
+    		// the header is a magic number, a version and a seed
+    		System.arraycopy(new byte[] { -1, -1, -1, -1, 15 }, 0, hugeCount, 13, 5);
+    		assertUnreadable(hugeCount);
+    		assertUnreadable(Arrays.copyOf(bytes, bytes.length / 2));
+    		
+    		// PCT of depth 1 never fails this test on its own
+    		test.setScheduleStrategy(new ScheduleStrategies.PCT(1));
+    		try {
+    			TestFramework.replay(test, file);
+    			fail("Replay did not fail");
+    		} catch (AssertionFailedError e) {
+    			assertEquals(message, e.getMessage());
+    		}
+    	} finally {
+    		file.delete();
+    	}
+    }
+
+	/**
+	 * Test that exploration covers every order of the dependent steps, but
+	 * not every order of the independent ones.
+	 */
+	class TestExploration extends MultithreadedTestCase {
+		final AtomicInteger a = new AtomicInteger(), b = new AtomicInteger();
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final Set<List<String>> orders = new HashSet<List<String>>();
+
+		public void thread1() { access(a, "1"); }
+		public void thread2() { access(a, "2"); }
+		public void thread3() { access(b, "3"); }
+
+		private void access(AtomicInteger counter, String name) {
+			for (int i = 0; i < 2; i++) {
+				mayYieldOn(counter);
+				counter.incrementAndGet();
+				if (counter == a)
+					order.add(name);
+			}
+		}
+
+		@Override
+		public void initialize() {
+			order.clear();
+		}
+
+		@Override
+		public void finish() {
+			orders.add(new ArrayList<String>(order));
+		}
+	}
+
+	/**
+	 * Test that exploration finds a lost update, which needs a preemption
+	 * between a read and a write.
+	 */
+	class TestExplorationFailure extends MultithreadedTestCase {
+		volatile int value;
+		boolean check = true;
+
+		public void thread1() { increment(); }
+		public void thread2() { increment(); }
+
+		private void increment() {
+			mayYieldOn(this);
+			int read = value;
+			mayYieldOn(this);
+			value = read + 1;
+		}
+
+		@Override
+		public void initialize() {
+			value = 0;
+		}
+
+		@Override
+		public void finish() {
+			if (check)
+				assertEquals(2, value);
+		}
+	}
+
+    public void testExploration() throws Throwable {
+    	TestExploration test = new TestExploration();
+    	ExplorationReport report = TestFramework.explore(test, 1000);
+    	assertTrue(report.toString(), report.isComplete());
+    	assertTrue(report.toString(), report.getPruned() > 0);
+    	// two threads taking two steps each can interleave in 6 ways
+    	assertEquals(6, test.orders.size());
+    	// out of 9! / (3! 3! 3!) = 1680 schedules of 3 steps per thread, with
+    	// the starts of the thread methods conflicting with every step
+    	assertTrue(report.toString(), report.getRuns() < 500);
+    	
+    	report = TestFramework.explore(test, 3);
+    	assertFalse(report.isComplete());
+    	assertEquals(3, report.getRuns());
+    	
+    	try {
+    		TestFramework.explore(new TestExplorationFailure(), 1000);
+    		fail("Exploration did not find the lost update");
+    	} catch (AssertionFailedError e) {
+    		RunSeedException.getScheduleFile(e).delete();
+    	}
+    }
+
+    /**
+     * Test that preemption-bounded exploration covers the schedules without
+     * preemptions first, and finds a bug needing one preemption.
+     */
+    public void testBoundedExploration() throws Throwable {
+    	// the bug in TestPCT needs thread1 to be preempted between its writes
+    	TestPCT test = new TestPCT();
+    	ExplorationReport report = TestFramework.exploreBounded(test, 0, 60000);
+    	assertFalse(report.isComplete());
+    	assertEquals(report.toString(), 0, report.getPreemptions());
+    	assertTrue(report.toString(), report.getPruned() > 0);
+    	
+    	try {
+    		TestFramework.exploreBounded(test, Integer.MAX_VALUE, 60000);
+    		fail("Exploration did not find the bug");
+    	} catch (AssertionFailedError e) {
+    		RunSeedException.getScheduleFile(e).delete();
+    	}
+    	
+    	report = TestFramework.exploreBounded(new TestExploration(), Integer.MAX_VALUE, 0);
+    	assertFalse(report.isComplete());
+    	assertEquals(-1, report.getPreemptions());
+    	
+    	// 2 threads of 3 steps have 6! / (3! 3!) = 20 schedules
+    	TestExplorationFailure unchecked = new TestExplorationFailure();
+    	unchecked.check = false;
+    	report = TestFramework.exploreBounded(unchecked, Integer.MAX_VALUE, 60000);
+    	assertTrue(report.toString(), report.isComplete());
+    	assertEquals(20, report.getRuns());
+    }
+
+	/**
+	 * Test that a failing schedule with many context switches is shrunk to
+	 * one with a few.
+	 */
+	class TestMinimize extends MultithreadedTestCase {
+		volatile int state, observed;
+
+		public void thread1() {
+			for (int i = 0; i < 20; i++)
+				mayYield();
+			state = 1;
+			mayYield();
+			state = 2;
+		}
+
+		public void thread2() {
+			for (int i = 0; i < 20; i++)
+				mayYield();
+			observed = state;
+		}
+
+		public void thread3() {
+			for (int i = 0; i < 20; i++)
+				mayYield();
+		}
+
+		@Override
+		public void initialize() {
+			state = observed = 0;
+		}
+
+		@Override
+		public void finish() {
+			assertTrue("Saw the intermediate state", observed != 1);
+		}
+	}
+
+    public void testMinimize() throws Throwable {
+    	TestMinimize test = new TestMinimize();
+    	test.setScheduleStrategy(new ScheduleStrategies.RandomWalk());
+    	String message = null;
+    	Schedule failing = null;
+    	try {
+    		TestFramework.runManyTimes(test, 1000, null, null, 3L);
+    		fail("No run failed");
+    	} catch (AssertionFailedError e) {
+    		message = e.getMessage();
+    		failing = RunSeedException.getSchedule(e);
+    		RunSeedException.getScheduleFile(e).delete();
+    	}
+    	assertTrue(failing.toString(), failing.countContextSwitches() > 10);
+    	
+    	Schedule minimized = TestFramework.minimize(test, failing);
+    	// thread1 runs to its first write, thread2 reads, thread1 finishes
+    	assertTrue(minimized.toString(), minimized.countContextSwitches() <= 3);
+    	try {
+    		TestFramework.replay(test, minimized);
+    		fail("Minimized schedule did not fail");
+    	} catch (AssertionFailedError e) {
+    		assertEquals(message, e.getMessage());
+    		RunSeedException.getScheduleFile(e).delete();
+    	}
+    }
+
+
+    /**
+     * Test that fuzzing grows a corpus on disk, that a later session starts
+     * from it, and that fuzzing finds a bug.
+     */
+    public void testFuzz() throws Throwable {
+    	File dir = File.createTempFile("corpus", "");
+    	dir.delete();
+    	try {
+    		TestExplorationFailure unchecked = new TestExplorationFailure();
+    		unchecked.check = false;
+    		FuzzReport report = TestFramework.fuzz(unchecked, dir, 100, 60000);
+    		assertEquals(100, report.getRuns());
+    		assertTrue(report.toString(), report.getCoverage() > 0);
+    		assertTrue(report.toString(), report.getAdded() > 1);
+    		assertEquals(report.getAdded(), dir.list().length);
+    		for (File file : dir.listFiles())
+    			TestFramework.replay(unchecked, file);
+    		
+    		FuzzReport next = TestFramework.fuzz(unchecked, dir, 100, 60000);
+    		assertTrue(next.toString(), next.getCorpusSize() >= report.getCorpusSize());
+    		assertEquals(next.getCorpusSize(), dir.list().length);
+    		
+    		try {
+    			TestFramework.fuzz(new TestPCT(), dir, 1000, 60000);
+    			fail("Fuzzing did not find the bug");
+    		} catch (AssertionFailedError e) {
+    			RunSeedException.getScheduleFile(e).delete();
+    		}
+    	} finally {
+    		for (File file : dir.listFiles())
+    			file.delete();
+    		dir.delete();
+    	}
+    }
 
 }
@@ -177,4 +177,36 @@ public class TickListenerTest {
 		}
 	}
 
+	/**
+	 * Test that many registered ticks, registered out of order and more than
+	 * once, are each reached exactly once and in order.
+	 */
+	public static class TestRegisterManyTicks extends MultithreadedJUnit4TestCase {
+		static final int TICKS = 200;
+		DummyListener listener = new DummyListener();
+
+		@Before
+		public void initialize() {
+			setEventDrivenClock(true);
+			addTickListener(listener);
+		}
+
+		@Threaded
+		public void thread1() {
+			for (long tick = TICKS; tick > 0; tick--) {
+				registerTick(tick);
+				registerTick(tick);
+			}
+			waitForTick(TICKS);
+		}
+
+		@Test
+		public void testRegisterManyTicks() {
+			List<Long> expected = new ArrayList<Long>();
+			for (long tick = 1; tick <= TICKS; tick++)
+				expected.add(tick);
+			assertEquals(expected, listener.ticks);
+		}
+	}
+
 }
@@ -1,12 +1,15 @@
 package sanity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
 import edu.umd.cs.mtc.MultithreadedJUnit4TestCase;
+import edu.umd.cs.mtc.MultithreadedTestCase;
+import edu.umd.cs.mtc.TestFramework;
 import edu.umd.cs.mtc.Threaded;
 
 /**
@@ -89,5 +92,84 @@ public class TimingTest {
         	// this space left intentionally blank
         }
     }
+    
+    
+
+    /**
+     * Tests that an event-driven clock advances as soon as all threads are
+     * waiting for a tick, instead of waiting for two clock periods per tick.
+     */
+    public static class TestEventDrivenClock {
+    	static final int TICKS = 20;
+    	// long enough that falling back on polling can't go unnoticed
+    	static final int CLOCK_PERIOD = 1000;
+    	
+    	static class Alternating extends MultithreadedTestCase {
+    		StringBuffer output = new StringBuffer();
+    		
+    		@Override
+    		public void initialize() {
+    			setEventDrivenClock(true);
+    		}
+    		
+    		public void thread1() {
+    			for (int i = 1; i <= TICKS; i += 2) {
+    				waitForTick(i);
+    				output.append("A");
+    			}
+    		}
+    		
+    		public void thread2() {
+    			for (int i = 2; i <= TICKS; i += 2) {
+    				waitForTick(i);
+    				output.append("B");
+    			}
+    		}
+    	}
+    	
+    	@Test
+    	public void testEventDrivenClock() throws Throwable {
+    		Alternating test = new Alternating();
+    		long start = System.currentTimeMillis();
+    		TestFramework.runOnce(test, CLOCK_PERIOD, null);
+    		long elapsed = System.currentTimeMillis() - start;
+    		assertEquals(TICKS, test.getTick());
+    		for (int i = 0; i < TICKS; i++)
+    			assertEquals(i % 2 == 0 ? 'A' : 'B', test.output.charAt(i));
+    		
+    		// polling would take two clock periods per tick, and a tick missed
+    		// by the events a whole period
+    		assertTrue("Took " + elapsed + "ms", elapsed < 5 * CLOCK_PERIOD);
+        }
+    }
+
+	/**
+	 * Tests that a run ends as soon as the last thread method returns, rather
+	 * than when the clock thread next wakes up.
+	 */
+    public static class TestRunEndsWhenThreadsReturn {
+    	static final int RUNS = 3;
+    	// long enough that waiting for the clock can't go unnoticed
+    	static final int CLOCK_PERIOD = 5000;
+    	
+    	static class QuickThreads extends MultithreadedTestCase {
+    		public void thread1() {
+    			// do nothing
+    		}
+    		
+    		public void thread2() {
+    			// do nothing
+    		}
+    	}
+    	
+    	@Test
+    	public void testRunEndsWhenThreadsReturn() throws Throwable {
+    		long start = System.currentTimeMillis();
+    		TestFramework.runManyTimes(new QuickThreads(), RUNS, CLOCK_PERIOD, null);
+    		long elapsed = System.currentTimeMillis() - start;
+    		// waiting for the clock would take a whole period per run
+    		assertTrue("Took " + elapsed + "ms", elapsed < CLOCK_PERIOD);
+    	}
+    }
 
 }